@@ -3,9 +3,11 @@ package com.dp;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @MapperScan("com.dp.mapper")
 @SpringBootApplication
+@EnableScheduling
 public class DianPingApplication {
 
     public static void main(String[] args) {
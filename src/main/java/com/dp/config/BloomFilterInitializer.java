@@ -0,0 +1,71 @@
+package com.dp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.dp.mapper.ShopMapper;
+import com.dp.mapper.UserMapper;
+import com.dp.utils.BloomFilterManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+import static com.dp.contants.RedisConstants.CACHE_SHOP_KEY;
+import static com.dp.contants.RedisConstants.CACHE_USER_KEY;
+
+/**
+ * @Author zhou
+ * @Description // 启动时分批扫描商铺和用户表的id, 构建布隆过滤器
+ * @Date 2023/9/3
+ */
+@Slf4j
+@Component
+public class BloomFilterInitializer implements ApplicationRunner {
+
+	// 每批查询的id数量
+	private static final int BATCH_SIZE = 5000;
+
+	@Resource
+	private BloomFilterManager bloomFilterManager;
+	@Resource
+	private CacheProperties cacheProperties;
+	@Resource
+	private ShopMapper shopMapper;
+	@Resource
+	private UserMapper userMapper;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		build(CACHE_SHOP_KEY, shopMapper);
+		build(CACHE_USER_KEY, userMapper);
+	}
+
+	private <T> void build(String keyPrefix, BaseMapper<T> mapper) {
+		try {
+			// 按现有数据量的2倍预留容量, 给后续新增留出空间
+			long count = mapper.selectCount(null);
+			long expectedInsertions = Math.max(count * 2, cacheProperties.getBloomExpectedInsertions());
+			bloomFilterManager.build(keyPrefix, expectedInsertions, cacheProperties.getBloomFpp(), sink -> {
+				// 按id分批扫描, 避免深分页
+				long lastId = 0;
+				while (true) {
+					List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+							.select("id").gt("id", lastId).orderByAsc("id").last("limit " + BATCH_SIZE));
+					for (Object id : ids) {
+						lastId = ((Number) id).longValue();
+						sink.accept(lastId);
+					}
+					if (ids.size() < BATCH_SIZE) {
+						break;
+					}
+				}
+			});
+		} catch (Exception e) {
+			// 构建失败时过滤器不生效, 不影响正常查询
+			log.error("布隆过滤器构建失败, prefix: {}", keyPrefix, e);
+		}
+	}
+}
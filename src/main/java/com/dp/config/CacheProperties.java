@@ -0,0 +1,104 @@
+package com.dp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @Author zhou
+ * @Description // 缓存相关的配置项, 对应配置文件中的 dp.cache
+ * @Date 2023/9/2
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "dp.cache")
+public class CacheProperties {
+	/**
+	 * 本地缓存最多保留的key数量
+	 */
+	private long localMaximumSize = 10000;
+	/**
+	 * 本地缓存写入后的存活秒数
+	 */
+	private long localExpireSeconds = 10;
+	/**
+	 * 布隆过滤器最少预留的元素个数
+	 */
+	private long bloomExpectedInsertions = 1000000;
+	/**
+	 * 布隆过滤器期望的误判率
+	 */
+	private double bloomFpp = 0.01;
+	/**
+	 * 缓存值的编码方式: kryo 二进制, json 字符串
+	 */
+	private String codec = "kryo";
+	/**
+	 * 缓存重建线程池的线程数
+	 */
+	private int rebuildThreads = 10;
+	/**
+	 * 缓存重建线程池的队列长度, 队列满时放弃重建, 继续返回旧数据
+	 */
+	private int rebuildQueueCapacity = 200;
+	/**
+	 * 应用关闭时等待重建任务完成的最长秒数
+	 */
+	private long rebuildShutdownSeconds = 10;
+	/**
+	 * 每个前缀参与提前刷新的最热key个数
+	 */
+	private int refreshAheadTopK = 100;
+	/**
+	 * 逻辑过期时间距离现在少于该秒数时提前刷新
+	 */
+	private long refreshAheadSeconds = 60;
+	/**
+	 * 检查热点key是否需要刷新的间隔毫秒数
+	 */
+	private long refreshAheadIntervalMillis = 5000;
+	/**
+	 * 等待其他线程查询同一个key的最长毫秒数, 超时后抛出异常, 不再无限等待
+	 */
+	private long singleFlightTimeoutMillis = 3000;
+	/**
+	 * 启动时是否预热缓存
+	 */
+	private boolean warmUpEnabled = true;
+	/**
+	 * 预热完成之前不标记为就绪(在启动线程中同步预热), 为false时在后台线程中预热
+	 */
+	private boolean warmUpBlockReadiness = true;
+	/**
+	 * 预热时每个pipeline写入的key数量
+	 */
+	private int warmUpBatchSize = 500;
+	/**
+	 * 启动预热标记的有效分钟数, 期间其他节点启动时不再重复预热
+	 */
+	private long warmUpMarkerMinutes = 30;
+	/**
+	 * 默认的TTL随机抖动比例, 实际TTL在 [ttl, ttl * (1 + 比例)] 之间
+	 */
+	private double ttlJitterRatio = 0.1;
+	/**
+	 * 按key前缀配置的TTL策略, 匹配最长的前缀
+	 */
+	private Map<String, TtlPolicy> ttlPolicies = new HashMap<>();
+
+	@Data
+	public static class TtlPolicy {
+		/**
+		 * 过期时间, 配置后覆盖代码中传入的TTL
+		 */
+		private Duration ttl;
+		/**
+		 * 随机抖动比例, 不配置时使用默认比例
+		 */
+		private Double jitterRatio;
+	}
+}
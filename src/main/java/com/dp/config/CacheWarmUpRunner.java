@@ -0,0 +1,259 @@
+package com.dp.config;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.dp.dto.VoucherListDTO;
+import com.dp.entity.ShopType;
+import com.dp.entity.Voucher;
+import com.dp.mapper.ShopMapper;
+import com.dp.mapper.ShopTypeMapper;
+import com.dp.mapper.VoucherMapper;
+import com.dp.service.IShopTypeService;
+import com.dp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.dp.contants.RedisConstants.*;
+
+/**
+ * @Author zhou
+ * @Description // 启动时通过游标流式读取商铺、商铺类型和优惠券, 以pipeline批量写入缓存;
+ *                 同步执行时ApplicationRunner完成之前应用不会标记为就绪;
+ *                 多个节点同时启动时只有抢到 cache:warmed 标记的节点预热, 已经存在的key不会被覆盖
+ * @Date 2023/9/6
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+	@Resource
+	private CacheClient cacheClient;
+	@Resource
+	private CacheProperties cacheProperties;
+	@Resource
+	private IShopTypeService shopTypeService;
+	@Resource
+	private SqlSessionFactory sqlSessionFactory;
+	@Resource
+	private StringRedisTemplate stringRedisTemplate;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+	// 每种数据已经写入的数量
+	private final Map<String, AtomicLong> counts = new LinkedHashMap<>();
+	private volatile String status = "IDLE";
+	private volatile long startMillis;
+	private volatile long finishMillis;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (!cacheProperties.isWarmUpEnabled()) {
+			return;
+		}
+		if (!acquireMarker()) {
+			status = "SKIPPED";
+			log.info("缓存已由其他节点预热, 跳过预热");
+			return;
+		}
+		if (cacheProperties.isWarmUpBlockReadiness()) {
+			warmUp();
+		} else {
+			warmUpAsync();
+		}
+	}
+
+	/**
+	 * 在后台线程中预热, 已经在预热时返回false; 手动触发时不检查预热标记, 只补充缺失的key
+	 */
+	public boolean warmUpAsync() {
+		if (running.get()) {
+			return false;
+		}
+		Thread thread = new Thread(this::warmUp, "cache-warm-up");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * 当前的预热进度: 状态、耗时以及每种数据的写入数量和吞吐
+	 */
+	public Map<String, Object> progress() {
+		Map<String, Object> progress = new LinkedHashMap<>();
+		progress.put("status", status);
+		long elapsed = elapsedMillis();
+		progress.put("elapsedMillis", elapsed);
+		synchronized (counts) {
+			counts.forEach((name, count) -> {
+				progress.put(name, count.get());
+				progress.put(name + "PerSecond", elapsed == 0 ? 0 : count.get() * 1000 / elapsed);
+			});
+		}
+		return progress;
+	}
+
+	private void warmUp() {
+		if (!running.compareAndSet(false, true)) {
+			return;
+		}
+		synchronized (counts) {
+			counts.clear();
+		}
+		status = "RUNNING";
+		startMillis = System.currentTimeMillis();
+		finishMillis = 0;
+		try {
+			log.info("缓存预热开始");
+			warmUpShopTypes();
+			warmUpShops();
+			warmUpVouchers();
+			status = "DONE";
+		} catch (Exception e) {
+			// 预热失败不影响启动, 缓存会在请求时按需重建
+			status = "FAILED";
+			log.error("缓存预热失败", e);
+			releaseMarker();
+		} finally {
+			finishMillis = System.currentTimeMillis();
+			running.set(false);
+			log.info("缓存预热结束: {}", progress());
+		}
+	}
+
+	private void warmUpShopTypes() {
+		List<ShopType> typeList = new ArrayList<>();
+		scan(session -> session.getMapper(ShopTypeMapper.class).scanAll(), typeList::add);
+		shopTypeService.cacheTypeList(typeList);
+		counter("shopTypes").addAndGet(typeList.size());
+	}
+
+	private void warmUpShops() {
+		AtomicLong count = counter("shops");
+		Map<String, Object> batch = new LinkedHashMap<>();
+		// 同时按商铺类型加载GEO集合
+		Map<Long, List<RedisGeoCommands.GeoLocation<String>>> locations = new HashMap<>();
+		scan(session -> session.getMapper(ShopMapper.class).scanAll(), shop -> {
+			batch.put(CACHE_SHOP_KEY + shop.getId(), shop);
+			if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+				locations.computeIfAbsent(shop.getTypeId(), typeId -> new ArrayList<>())
+						.add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+			}
+			if (batch.size() >= cacheProperties.getWarmUpBatchSize()) {
+				flush(batch, CACHE_SHOP_TTL, count, "shops");
+				flushGeo(locations);
+			}
+		});
+		flush(batch, CACHE_SHOP_TTL, count, "shops");
+		flushGeo(locations);
+	}
+
+	// GEOADD 每个类型一次
+	private void flushGeo(Map<Long, List<RedisGeoCommands.GeoLocation<String>>> locations) {
+		locations.forEach((typeId, list) -> stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId, list));
+		locations.clear();
+	}
+
+	private void warmUpVouchers() {
+		AtomicLong count = counter("shopVouchers");
+		Map<String, Object> batch = new LinkedHashMap<>();
+		// 游标按商铺id排序, 商铺id变化时当前商铺的优惠券已经读取完整
+		List<Voucher> current = new ArrayList<>();
+		scan(session -> session.getMapper(VoucherMapper.class).scanVoucherOfShops(), voucher -> {
+			if (!current.isEmpty() && !current.get(0).getShopId().equals(voucher.getShopId())) {
+				addShopVouchers(batch, current, count);
+			}
+			// 秒杀库存不放在列表缓存中, 查询时从redis读取实时库存
+			voucher.setStock(null);
+			current.add(voucher);
+		});
+		if (!current.isEmpty()) {
+			addShopVouchers(batch, current, count);
+		}
+		flush(batch, CACHE_SHOP_VOUCHER_TTL, count, "shopVouchers");
+	}
+
+	private void addShopVouchers(Map<String, Object> batch, List<Voucher> vouchers, AtomicLong count) {
+		Long shopId = vouchers.get(0).getShopId();
+		batch.put(CACHE_SHOP_VOUCHER_KEY + shopId, new VoucherListDTO(shopId, new ArrayList<>(vouchers)));
+		vouchers.clear();
+		if (batch.size() >= cacheProperties.getWarmUpBatchSize()) {
+			flush(batch, CACHE_SHOP_VOUCHER_TTL, count, "shopVouchers");
+		}
+	}
+
+	// 一次pipeline写入一批, 已经存在的key跳过; 逻辑过期时间按TTL策略加上随机抖动, 避免同时过期
+	private void flush(Map<String, Object> batch, Long minutes, AtomicLong count, String name) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		int written = cacheClient.setLogicalExpireBatchIfAbsent(batch, minutes, TimeUnit.MINUTES).size();
+		long total = count.addAndGet(written);
+		long skipped = counter(name + "Skipped").addAndGet(batch.size() - written);
+		batch.clear();
+		long elapsed = elapsedMillis();
+		log.info("缓存预热 {}: 已写入 {} 条, 跳过已存在的 {} 条, {} 条/秒", name, total, skipped,
+				elapsed == 0 ? 0 : total * 1000 / elapsed);
+	}
+
+	// SET cache:warmed NX EX, 只有一个节点能在标记有效期内预热; redis不可用时跳过预热, 缓存在请求时按需重建
+	private boolean acquireMarker() {
+		try {
+			return BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(CACHE_WARMED_KEY,
+					String.valueOf(System.currentTimeMillis()), cacheProperties.getWarmUpMarkerMinutes(), TimeUnit.MINUTES));
+		} catch (Exception e) {
+			log.error("获取缓存预热标记失败", e);
+			return false;
+		}
+	}
+
+	// 预热失败后删除标记, 下一个启动的节点可以重新预热
+	private void releaseMarker() {
+		try {
+			stringRedisTemplate.delete(CACHE_WARMED_KEY);
+		} catch (Exception e) {
+			log.error("删除缓存预热标记失败", e);
+		}
+	}
+
+	// 游标必须在同一个SqlSession中遍历; 使用自动提交的独立会话, 写入redis期间不持有数据库事务
+	private <T> void scan(Function<SqlSession, Cursor<T>> query, Consumer<T> consumer) {
+		try (SqlSession session = sqlSessionFactory.openSession(true);
+		     Cursor<T> cursor = query.apply(session)) {
+			cursor.forEach(consumer);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private AtomicLong counter(String name) {
+		synchronized (counts) {
+			return counts.computeIfAbsent(name, n -> new AtomicLong());
+		}
+	}
+
+	private long elapsedMillis() {
+		if (startMillis == 0) {
+			return 0;
+		}
+		return (finishMillis == 0 ? System.currentTimeMillis() : finishMillis) - startMillis;
+	}
+}
@@ -0,0 +1,44 @@
+package com.dp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * @Author zhou
+ * @Description // 关注推送相关的配置项, 对应配置文件中的 dp.feed
+ * @Date 2023/9/10
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "dp.feed")
+public class FeedProperties {
+	/**
+	 * 推送线程池的线程数
+	 */
+	private int fanoutThreads = 4;
+	/**
+	 * 推送队列长度, 队列满时由发布博文的线程自己推送
+	 */
+	private int fanoutQueueCapacity = 1000;
+	/**
+	 * 每次分页查询粉丝并pipeline写入收件箱的数量
+	 */
+	private int fanoutBatchSize = 1000;
+	/**
+	 * 每个用户收件箱最多保留的博文数量, 超出时删除最旧的
+	 */
+	private int inboxMaxSize = 1000;
+	/**
+	 * 粉丝数达到该值的作者不再写扩散, 博文只写入自己的发件箱, 由粉丝读取时拉取
+	 */
+	private long celebrityFollowerThreshold = 10000;
+	/**
+	 * 合并后的关注博文分页在本地缓存的秒数
+	 */
+	private long pageCacheSeconds = 3;
+	/**
+	 * 本地缓存最多保留的分页数量
+	 */
+	private long pageCacheMaximumSize = 10000;
+}
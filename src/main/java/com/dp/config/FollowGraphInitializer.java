@@ -0,0 +1,99 @@
+package com.dp.config;
+
+import com.dp.entity.Follow;
+import com.dp.mapper.FollowMapper;
+import com.dp.utils.FollowGraph;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @Author zhou
+ * @Description // 流式读取 tb_follow, 以pipeline批量写入redis中的关注关系集合;
+ *                 redis中已有构建完成的标记时启动时跳过, 也可以通过运维接口手动重建;
+ *                 构建期间的取关由 FollowGraph 记录, 快照中已经取关的关系不会被重新写入
+ * @Date 2023/9/11
+ */
+@Slf4j
+@Component
+public class FollowGraphInitializer implements ApplicationRunner {
+
+	// 每个pipeline写入的关注关系数量
+	private static final int BATCH_SIZE = 1000;
+
+	@Resource
+	private FollowGraph followGraph;
+	@Resource
+	private SqlSessionFactory sqlSessionFactory;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (followGraph.loadBuilt()) {
+			log.info("关注关系已在redis中, 跳过构建");
+			return;
+		}
+		rebuildAsync();
+	}
+
+	/**
+	 * 在后台线程中重建, 已经在重建时返回false; 重建只补充缺失的关系, 期间的关注和取关照常同步
+	 */
+	public boolean rebuildAsync() {
+		if (!running.compareAndSet(false, true)) {
+			return false;
+		}
+		Thread thread = new Thread(() -> {
+			try {
+				rebuild();
+			} catch (Exception e) {
+				// 构建失败时继续查询数据库
+				log.error("关注关系构建失败", e);
+			} finally {
+				running.set(false);
+			}
+		}, "follow-graph-rebuild");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	private void rebuild() {
+		long start = System.currentTimeMillis();
+		long count = 0;
+		// 先开始记录取关, 再读取数据库快照, 快照之后的取关一定会被记录
+		followGraph.beginRebuild();
+		// 游标必须在同一个SqlSession中遍历; 使用自动提交的独立会话, 写入redis期间不持有数据库事务
+		try (SqlSession session = sqlSessionFactory.openSession(true);
+		     Cursor<Follow> cursor = session.getMapper(FollowMapper.class).scanAll()) {
+			List<Follow> batch = new ArrayList<>(BATCH_SIZE);
+			for (Follow follow : cursor) {
+				batch.add(follow);
+				if (batch.size() >= BATCH_SIZE) {
+					followGraph.addAll(batch);
+					count += batch.size();
+					batch.clear();
+				}
+			}
+			followGraph.addAll(batch);
+			count += batch.size();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			followGraph.endRebuild();
+		}
+		followGraph.markBuilt();
+		log.info("关注关系构建完成, 关系数: {}, 耗时: {}ms", count, System.currentTimeMillis() - start);
+	}
+}
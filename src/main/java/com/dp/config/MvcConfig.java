@@ -1,13 +1,20 @@
 package com.dp.config;
 
+import cn.hutool.core.util.StrUtil;
+import com.dp.interceptor.AdminInterceptor;
 import com.dp.interceptor.LoginInterceptor;
 import com.dp.interceptor.RefreshTokenInterceptor;
+import com.dp.utils.SessionCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * @Author zhou
  * @Description // 用于配置自定义的拦截器
@@ -17,6 +24,11 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 public class MvcConfig implements WebMvcConfigurer {
 	@Autowired
 	private StringRedisTemplate stringRedisTemplate;
+	@Autowired
+	private SessionCache sessionCache;
+	// 可以访问运维接口的用户id, 逗号分隔
+	@Value("${dp.admin.user-ids:}")
+	private String adminUserIds;
 	@Override
 	public void addInterceptors(InterceptorRegistry registry) {
 		registry.addInterceptor(new LoginInterceptor(stringRedisTemplate))
@@ -28,8 +40,18 @@ public class MvcConfig implements WebMvcConfigurer {
 						"/voucher/**" ,
 						"/shop-type/**" ,
 						"/blog/hot" ,
+						"/blog/likes/**" ,
 						"/user/me"
 				).order(1);
-		registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+		registry.addInterceptor(new RefreshTokenInterceptor(sessionCache)).addPathPatterns("/**").order(0);
+		registry.addInterceptor(new AdminInterceptor(parseIds(adminUserIds))).addPathPatterns("/admin/**").order(2);
+	}
+
+	private static Set<Long> parseIds(String ids) {
+		Set<Long> result = new HashSet<>();
+		for (String id : StrUtil.splitTrim(ids, ',')) {
+			result.add(Long.valueOf(id));
+		}
+		return result;
 	}
 }
@@ -0,0 +1,86 @@
+package com.dp.config;
+
+import com.dp.service.IShopService;
+import com.dp.service.IShopTypeService;
+import com.dp.utils.BloomFilterManager;
+import com.dp.utils.CacheClient;
+import com.dp.utils.CacheCodec;
+import com.dp.utils.JsonCacheCodec;
+import com.dp.utils.KryoCacheCodec;
+import com.dp.utils.SessionCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.dp.contants.RedisConstants.BLOOM_FILTER_CHANNEL;
+import static com.dp.contants.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.dp.contants.RedisConstants.SESSION_INVALIDATE_CHANNEL;
+import static com.dp.contants.RedisConstants.SHOP_CHANGED_CHANNEL;
+import static com.dp.contants.RedisConstants.SHOP_TYPE_REFRESH_CHANNEL;
+
+/**
+ * @Author zhou
+ * @Description // redis相关的配置, 注册发布订阅的监听
+ * @Date 2023/9/2
+ */
+@Configuration
+public class RedisConfig {
+
+	// 值以原始字节读写的模板, 由CacheCodec负责编解码
+	@Bean
+	public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory connectionFactory) {
+		RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+		template.setConnectionFactory(connectionFactory);
+		template.setKeySerializer(RedisSerializer.string());
+		template.setValueSerializer(RedisSerializer.byteArray());
+		template.setHashKeySerializer(RedisSerializer.string());
+		template.setHashValueSerializer(RedisSerializer.byteArray());
+		return template;
+	}
+
+	@Bean
+	public CacheCodec cacheCodec(CacheProperties cacheProperties) {
+		if ("json".equalsIgnoreCase(cacheProperties.getCodec())) {
+			return new JsonCacheCodec();
+		}
+		return new KryoCacheCodec();
+	}
+
+	@Bean
+	public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+	                                                                   CacheClient cacheClient,
+	                                                                   BloomFilterManager bloomFilterManager,
+	                                                                   IShopTypeService shopTypeService,
+	                                                                   IShopService shopService,
+	                                                                   SessionCache sessionCache) {
+		RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+		container.setConnectionFactory(connectionFactory);
+		// 其他节点删除或写入缓存时, 同步清除本节点的本地缓存
+		container.addMessageListener((message, pattern) ->
+						cacheClient.onInvalidated(new String(message.getBody(), StandardCharsets.UTF_8)),
+				new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+		// 其他节点新增了数据, 同步写入本节点的布隆过滤器
+		container.addMessageListener((message, pattern) ->
+						bloomFilterManager.onAdded(new String(message.getBody(), StandardCharsets.UTF_8)),
+				new ChannelTopic(BLOOM_FILTER_CHANNEL));
+		// 商铺类型发布了新版本, 重新加载本节点的快照
+		container.addMessageListener((message, pattern) ->
+						shopTypeService.onTypeListChanged(new String(message.getBody(), StandardCharsets.UTF_8)),
+				new ChannelTopic(SHOP_TYPE_REFRESH_CHANNEL));
+		// 其他节点新增或修改了商铺, 同步本节点的空间索引和名称索引
+		container.addMessageListener((message, pattern) ->
+						shopService.onShopChanged(new String(message.getBody(), StandardCharsets.UTF_8)),
+				new ChannelTopic(SHOP_CHANGED_CHANNEL));
+		// 用户在其他节点登出, 清除本节点缓存的会话
+		container.addMessageListener((message, pattern) ->
+						sessionCache.evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+				new ChannelTopic(SESSION_INVALIDATE_CHANNEL));
+		return container;
+	}
+}
@@ -0,0 +1,28 @@
+package com.dp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * @Author zhou
+ * @Description // 登录会话本地缓存的配置项, 对应配置文件中的 dp.session
+ * @Date 2023/9/12
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "dp.session")
+public class SessionProperties {
+	/**
+	 * 本地缓存最多保留的token数量
+	 */
+	private long localMaximumSize = 100000;
+	/**
+	 * 会话在本地缓存的秒数, 其他节点登出时通过订阅消息提前清除
+	 */
+	private long localExpireSeconds = 60;
+	/**
+	 * 同一个token两次刷新redis有效期的最小间隔(分钟), 必须小于会话的有效期
+	 */
+	private long refreshIntervalMinutes = 5;
+}
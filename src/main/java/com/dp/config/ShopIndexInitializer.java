@@ -0,0 +1,63 @@
+package com.dp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.dp.entity.Shop;
+import com.dp.mapper.ShopMapper;
+import com.dp.utils.ShopNameIndex;
+import com.dp.utils.ShopSpatialIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * @Author zhou
+ * @Description // 启动时分批扫描商铺的类型、坐标、名称和排序字段, 构建进程内的空间索引和名称索引
+ * @Date 2023/9/7
+ */
+@Slf4j
+@Component
+public class ShopIndexInitializer implements ApplicationRunner {
+
+	// 每批查询的商铺数量
+	private static final int BATCH_SIZE = 5000;
+
+	@Resource
+	private ShopSpatialIndex shopSpatialIndex;
+	@Resource
+	private ShopNameIndex shopNameIndex;
+	@Resource
+	private ShopMapper shopMapper;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		try {
+			long start = System.currentTimeMillis();
+			long count = 0;
+			// 按id分批扫描, 避免深分页
+			long lastId = 0;
+			while (true) {
+				List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+						.select("id", "type_id", "x", "y", "name", "score", "sold").gt("id", lastId).orderByAsc("id").last("limit " + BATCH_SIZE));
+				for (Shop shop : shops) {
+					lastId = shop.getId();
+					shopSpatialIndex.put(shop.getId(), shop.getTypeId(), shop.getX(), shop.getY());
+					shopNameIndex.put(shop.getId(), shop.getName(), shop.getScore(), shop.getSold());
+				}
+				count += shops.size();
+				if (shops.size() < BATCH_SIZE) {
+					break;
+				}
+			}
+			shopSpatialIndex.markReady();
+			shopNameIndex.markReady();
+			log.info("商铺空间索引和名称索引构建完成, 商铺数: {}, 耗时: {}ms", count, System.currentTimeMillis() - start);
+		} catch (Exception e) {
+			// 构建失败时不启用索引, 附近商铺查询只依赖redis, 名称搜索退回数据库模糊查询
+			log.error("商铺索引构建失败", e);
+		}
+	}
+}
@@ -5,6 +5,7 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    public static final String SESSION_INVALIDATE_CHANNEL = "login:token:invalidate";
 
     public static final String MALICE_KEY = "login:malice:";
 
@@ -12,13 +13,52 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_WARMED_KEY = "cache:warmed";
+    public static final String BLOOM_FILTER_CHANNEL = "bloom:add";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType:list";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shopType:version";
+    public static final String SHOP_TYPE_REFRESH_CHANNEL = "cache:shopType:refresh";
+
+    public static final Long CACHE_SHOP_VOUCHER_TTL = 5L;
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:voucher:shop:";
+    public static final String LOCK_SHOP_VOUCHER_KEY = "lock:voucher:shop:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    public static final String COUNTER_DELTA_KEY = "counter:delta:";
+    public static final String COUNTER_FLUSHING_KEY = "counter:flushing:";
+    public static final String COUNTER_FLUSH_ID_KEY = "counter:flush:id:";
+    public static final String LOCK_COUNTER_FLUSH_KEY = "lock:counter:flush:";
+    public static final Long LOCK_COUNTER_FLUSH_TTL = 60L;
+
+    public static final String ID_WORKER_KEY = "icr:worker:";
+    public static final Long ID_WORKER_TTL = 30L;
+
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_TIME_KEY = "seckill:time:";
+    public static final String SECKILL_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_STREAM_GROUP = "g1";
+    public static final String SECKILL_DEAD_LETTER_KEY = "stream.orders.dead";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FOLLOWERS_KEY = "followers:";
+    public static final String FOLLOW_GRAPH_BUILT_KEY = "follow:graph:built";
+    public static final String FOLLOW_GRAPH_REBUILDING_KEY = "follow:graph:rebuilding";
+    public static final Long FOLLOW_GRAPH_REBUILDING_TTL = 10L;
+    public static final String FOLLOW_GRAPH_UNFOLLOWED_KEY = "follow:graph:unfollowed";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_CELEBRITY_KEY = "feed:celebrities";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_CHANGED_CHANNEL = "shop:changed";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String LOCK_SIGN_COMPACT_KEY = "lock:sign:compact";
+    public static final Long LOCK_SIGN_COMPACT_TTL = 30L;
 }
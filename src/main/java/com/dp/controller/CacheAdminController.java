@@ -0,0 +1,90 @@
+package com.dp.controller;
+
+import cn.hutool.core.util.StrUtil;
+import com.dp.config.CacheWarmUpRunner;
+import com.dp.config.FollowGraphInitializer;
+import com.dp.dto.Result;
+import com.dp.utils.CacheExpiryReporter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * @Author zhou
+ * @Description // 缓存运维接口
+ * @Date 2023/9/6
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    // 一次最多扫描的key数量, 避免一个请求扫描整个keyspace
+    private static final int MAX_EXPIRY_SCAN_LIMIT = 100000;
+
+    @Resource
+    private CacheWarmUpRunner cacheWarmUpRunner;
+    @Resource
+    private CacheExpiryReporter cacheExpiryReporter;
+    @Resource
+    private FollowGraphInitializer followGraphInitializer;
+
+    /**
+     * 手动触发缓存预热, 在后台执行
+     * @return 无
+     */
+    @PostMapping("/warm-up")
+    public Result warmUp() {
+        if (!cacheWarmUpRunner.warmUpAsync()) {
+            return Result.fail("缓存预热正在进行中");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 查询缓存预热的进度
+     * @return 状态、耗时、写入数量和吞吐
+     */
+    @GetMapping("/warm-up")
+    public Result warmUpProgress() {
+        return Result.ok(cacheWarmUpRunner.progress());
+    }
+
+    /**
+     * 统计前缀下存活key的剩余过期时间分布
+     * @param prefix key前缀
+     * @param bucketSeconds 每个桶覆盖的秒数
+     * @param limit 最多扫描的key数量, 不超过 MAX_EXPIRY_SCAN_LIMIT
+     * @return 按剩余秒数分桶的key数量
+     */
+    @GetMapping("/expiry")
+    public Result expiryHistogram(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "bucketSeconds", defaultValue = "60") Long bucketSeconds,
+            @RequestParam(value = "limit", defaultValue = "10000") Integer limit
+    ) {
+        if (StrUtil.isBlank(prefix)) {
+            return Result.fail("prefix不能为空");
+        }
+        if (bucketSeconds <= 0) {
+            return Result.fail("bucketSeconds必须大于0");
+        }
+        int n = Math.min(Math.max(limit, 1), MAX_EXPIRY_SCAN_LIMIT);
+        return Result.ok(cacheExpiryReporter.histogram(prefix, bucketSeconds, n));
+    }
+
+    /**
+     * 从 tb_follow 重建redis中的关注关系, 在后台执行
+     * @return 无
+     */
+    @PostMapping("/follow-graph")
+    public Result rebuildFollowGraph() {
+        if (!followGraphInitializer.rebuildAsync()) {
+            return Result.fail("关注关系正在重建中");
+        }
+        return Result.ok();
+    }
+}
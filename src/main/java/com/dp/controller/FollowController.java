@@ -1,10 +1,17 @@
 package com.dp.controller;
 
 
+import com.dp.dto.Result;
+import com.dp.service.IFollowService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.annotation.Resource;
+
 /**
  * <p>
  *  前端控制器
@@ -17,4 +24,40 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/follow")
 public class FollowController {
 
+    @Resource
+    private IFollowService followService;
+
+    /**
+     * 关注或取关
+     * @param followUserId 被关注的用户id
+     * @param isFollow true 关注, false 取关
+     */
+    @PutMapping("/{id}/{isFollow}")
+    public Result follow(@PathVariable("id") Long followUserId, @PathVariable("isFollow") Boolean isFollow) {
+        return followService.follow(followUserId, isFollow);
+    }
+
+    /**
+     * 当前用户是否关注了该用户
+     */
+    @GetMapping("/or/not/{id}")
+    public Result isFollow(@PathVariable("id") Long followUserId) {
+        return followService.isFollow(followUserId);
+    }
+
+    /**
+     * 当前用户与该用户共同关注的人
+     */
+    @GetMapping("/common/{id}")
+    public Result commonFollows(@PathVariable("id") Long otherId) {
+        return followService.commonFollows(otherId);
+    }
+
+    /**
+     * 用户的关注数和粉丝数
+     */
+    @GetMapping("/count/{id}")
+    public Result followCount(@PathVariable("id") Long userId) {
+        return followService.followCount(userId);
+    }
 }
@@ -1,8 +1,6 @@
 package com.dp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.dp.dto.Result;
 import com.dp.entity.Shop;
 import com.dp.service.IShopService;
@@ -23,6 +21,9 @@ import javax.annotation.Resource;
 @RequestMapping("/shop")
 public class ShopController {
 
+    // 按名称搜索最多翻到的页数, 名称索引每次要取出 页码 * 每页数量 个结果
+    private static final int MAX_NAME_SEARCH_PAGE = 50;
+
     @Resource
     public IShopService shopService;
 
@@ -43,10 +44,7 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -64,25 +62,24 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param x 经度, 与纬度同时传入时按距离由近到远排序
+     * @param y 纬度
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByType(typeId, current, x, y);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
-     * @param current 页码
+     * @param current 页码, 不超过 MAX_NAME_SEARCH_PAGE
      * @return 商铺列表
      */
     @GetMapping("/of/name")
@@ -90,11 +87,22 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        int page = Math.min(Math.max(current, 1), MAX_NAME_SEARCH_PAGE);
+        return shopService.queryShopByName(name, page);
+    }
+
+    /**
+     * 商铺名称输入联想
+     * @param prefix 已输入的名称前缀
+     * @param limit 最多返回的数量, 不超过 SystemConstants.MAX_PAGE_SIZE
+     * @return 商铺名称列表
+     */
+    @GetMapping("/suggest")
+    public Result suggestShopName(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "limit", defaultValue = "10") Integer limit
+    ) {
+        int n = Math.min(Math.max(limit, 1), SystemConstants.MAX_PAGE_SIZE);
+        return shopService.suggestShopName(prefix, n);
     }
 }
@@ -1,15 +1,13 @@
 package com.dp.controller;
 
 
-import com.dp.dto.Result;
-import com.dp.entity.ShopType;
 import com.dp.service.IShopTypeService;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -25,10 +23,8 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
-    @GetMapping("list")
-    public Result queryTypeList() {
-        List<ShopType> typeList = typeService
-                .query().orderByAsc("sort").list();
-        return Result.ok(typeList);
+    @GetMapping(value = "list", produces = MediaType.APPLICATION_JSON_VALUE)
+    public byte[] queryTypeList() {
+        return typeService.queryTypeList();
     }
 }
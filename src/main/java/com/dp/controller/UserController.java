@@ -4,6 +4,7 @@ package com.dp.controller;
 import com.dp.dto.LoginFormDTO;
 import com.dp.dto.Result;
 import com.dp.entity.UserInfo;
+import com.dp.service.ISignMonthService;
 import com.dp.service.IUserInfoService;
 import com.dp.service.IUserService;
 import com.dp.utils.UserHolder;
@@ -11,6 +12,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 /**
@@ -32,6 +34,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private ISignMonthService signMonthService;
+
     /**
      * 发送手机验证码
      */
@@ -54,9 +59,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(HttpServletRequest request){
+        return userService.logout(request.getHeader("authorization"));
     }
 
     @GetMapping("/me")
@@ -77,4 +81,29 @@ public class UserController {
         // 返回
         return Result.ok(info);
     }
+
+    /**
+     * 今日签到
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return signMonthService.sign();
+    }
+
+    /**
+     * 截止今天的连续签到天数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return signMonthService.signCount();
+    }
+
+    /**
+     * 某个月的签到统计
+     * @param month 月份, 格式yyyyMM, 默认当月
+     */
+    @GetMapping("/sign/stat")
+    public Result signStat(@RequestParam(value = "month", required = false) String month){
+        return signMonthService.signStat(month);
+    }
 }
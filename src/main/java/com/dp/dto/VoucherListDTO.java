@@ -0,0 +1,16 @@
+package com.dp.dto;
+
+import com.dp.entity.Voucher;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VoucherListDTO {
+    private Long shopId;
+    private List<Voucher> vouchers;
+}
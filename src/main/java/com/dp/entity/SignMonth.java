@@ -0,0 +1,61 @@
+package com.dp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 按月压缩的签到记录
+ * </p>
+ *
+ * @author zhou
+ * @since 2023-09-12
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_sign_month")
+public class SignMonth implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 签到的月份, 格式yyyyMM
+     */
+    private Integer month;
+
+    /**
+     * 当月的签到记录, 第n天签到则第n-1位为1
+     */
+    private Integer bits;
+
+    /**
+     * 当月的签到天数
+     */
+    private Integer signCount;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+
+
+}
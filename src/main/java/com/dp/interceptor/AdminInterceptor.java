@@ -0,0 +1,36 @@
+package com.dp.interceptor;
+
+import com.dp.dto.UserDTO;
+import com.dp.utils.UserHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * @Author zhou
+ * @Description // 运维接口的拦截器, 只允许配置在 dp.admin.user-ids 中的用户访问
+ * @Date 2023/9/12
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+	private Set<Long> adminUserIds;
+
+	public AdminInterceptor(Set<Long> adminUserIds) {
+		this.adminUserIds = adminUserIds;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+		// 1.登录拦截器已经保证用户存在, 这里只判断是否为管理员
+		UserDTO user = UserHolder.getUser();
+		if (user == null || !adminUserIds.contains(user.getId())) {
+			// 不是管理员, 拒绝访问
+			response.setStatus(403);
+			return false;
+		}
+		// 是管理员, 放行
+		return true;
+	}
+}
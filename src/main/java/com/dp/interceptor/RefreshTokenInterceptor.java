@@ -1,22 +1,13 @@
 package com.dp.interceptor;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.dp.dto.UserDTO;
+import com.dp.utils.SessionCache;
 import com.dp.utils.UserHolder;
-import org.springframework.beans.BeansException;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.ApplicationContextAware;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import static com.dp.contants.RedisConstants.LOGIN_USER_KEY;
-import static com.dp.contants.RedisConstants.LOGIN_USER_TTL;
 
 /**
  * @Author zhou
@@ -26,10 +17,10 @@ import static com.dp.contants.RedisConstants.LOGIN_USER_TTL;
 //@Component
 public class RefreshTokenInterceptor implements HandlerInterceptor{
 
-	private StringRedisTemplate stringRedisTemplate;
+	private SessionCache sessionCache;
 
-	public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-		this.stringRedisTemplate = stringRedisTemplate;
+	public RefreshTokenInterceptor(SessionCache sessionCache) {
+		this.sessionCache = sessionCache;
 	}
 
 	@Override
@@ -39,20 +30,15 @@ public class RefreshTokenInterceptor implements HandlerInterceptor{
 		if (StrUtil.isBlank(token)) {
 			return true;
 		}
-		// 2.基于TOKEN获取redis中的用户
-		String key  = LOGIN_USER_KEY + token;
-		Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+		// 2.基于TOKEN获取用户, 优先读本地缓存, 有效期的刷新由SessionCache限频
+		UserDTO userDTO = sessionCache.get(token);
 		// 3.判断用户是否存在
-		if (userMap.isEmpty()) {
+		if (userDTO == null) {
 			return true;
 		}
-		// 5.将查询到的hash数据转为UserDTO
-		UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-		// 6.存在，保存用户信息到 ThreadLocal
+		// 4.存在，保存用户信息到 ThreadLocal
 		UserHolder.saveUser(userDTO);
-		// 7.刷新token有效期
-		stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.MINUTES);
-		// 8.放行
+		// 5.放行
 		return true;
 	}
 
@@ -0,0 +1,43 @@
+package com.dp.mapper;
+
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * @Author zhou
+ * @Description // 计数字段的批量累加, 表名和列名只来自 WriteBehindCounter.Type, 不接受外部输入
+ * @Date 2023/9/9
+ */
+public interface CounterMapper {
+
+	/**
+	 * 一条语句批量累加 UPDATE table SET column = column + CASE id WHEN .. THEN .. END WHERE id IN (..),
+	 * 计数列是无符号整数, 先转换为有符号再相加, 结果不小于0
+	 * @param deltas 记录id -> 变化量
+	 */
+	@Update("<script>" +
+			"UPDATE ${table} SET ${column} = GREATEST(CAST(IFNULL(${column}, 0) AS SIGNED) + CASE id " +
+			"<foreach collection='deltas' index='id' item='delta'>WHEN #{id} THEN #{delta} </foreach>" +
+			"ELSE 0 END, 0) WHERE id IN " +
+			"<foreach collection='deltas' index='id' item='delta' open='(' separator=',' close=')'>#{id}</foreach>" +
+			"</script>")
+	int incrBatch(@Param("table") String table, @Param("column") String column,
+	              @Param("deltas") Map<Long, Long> deltas);
+
+	/**
+	 * 记录一个批次已经写回, 与 incrBatch 在同一个事务中执行; 批次已经记录过时返回0, 调用方应跳过这一批
+	 */
+	@Insert("INSERT IGNORE INTO tb_counter_flush (batch_id) VALUES (#{batchId})")
+	int markFlushed(@Param("batchId") String batchId);
+
+	/**
+	 * 清理过期的批次记录, 每次最多删除limit条
+	 */
+	@Delete("DELETE FROM tb_counter_flush WHERE create_time < #{before} LIMIT #{limit}")
+	int deleteFlushedBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
@@ -2,6 +2,10 @@ package com.dp.mapper;
 
 import com.dp.entity.ShopType;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.mapping.ResultSetType;
 
 /**
  * <p>
@@ -13,4 +17,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ShopTypeMapper extends BaseMapper<ShopType> {
 
+    /**
+     * 按排序字段流式读取全部商铺类型, 需要在事务中遍历
+     */
+    @Select("SELECT * FROM tb_shop_type ORDER BY sort")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    Cursor<ShopType> scanAll();
 }
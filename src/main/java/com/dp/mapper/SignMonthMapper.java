@@ -0,0 +1,29 @@
+package com.dp.mapper;
+
+import com.dp.entity.SignMonth;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author zhou
+ * @since 2023-09-12
+ */
+public interface SignMonthMapper extends BaseMapper<SignMonth> {
+
+    /**
+     * 批量写入月签到记录, 已存在时与原记录按位或合并, 重复执行不会丢失签到
+     */
+    @Insert("<script>" +
+            "INSERT INTO tb_sign_month (user_id, month, bits, sign_count) VALUES " +
+            "<foreach collection='signs' item='s' separator=','>(#{s.userId}, #{s.month}, #{s.bits}, #{s.signCount})</foreach> " +
+            "ON DUPLICATE KEY UPDATE bits = bits | VALUES(bits), sign_count = BIT_COUNT(bits)" +
+            "</script>")
+    int upsertBatch(@Param("signs") List<SignMonth> signs);
+}
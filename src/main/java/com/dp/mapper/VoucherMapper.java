@@ -3,6 +3,7 @@ package com.dp.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.dp.entity.Voucher;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
 import java.util.List;
 
@@ -17,4 +18,9 @@ import java.util.List;
 public interface VoucherMapper extends BaseMapper<Voucher> {
 
     List<Voucher> queryVoucherOfShop(@Param("shopId") Long shopId);
+
+    /**
+     * 按商铺id顺序流式读取所有商铺的优惠券, 需要在事务中遍历
+     */
+    Cursor<Voucher> scanVoucherOfShops();
 }
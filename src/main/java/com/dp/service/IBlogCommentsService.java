@@ -1,5 +1,6 @@
 package com.dp.service;
 
+import com.dp.dto.Result;
 import com.dp.entity.BlogComments;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,5 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogCommentsService extends IService<BlogComments> {
 
+    Result saveComment(BlogComments comment);
 }
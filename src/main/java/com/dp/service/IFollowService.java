@@ -1,5 +1,6 @@
 package com.dp.service;
 
+import com.dp.dto.Result;
 import com.dp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,11 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IFollowService extends IService<Follow> {
 
+    Result follow(Long followUserId, Boolean isFollow);
+
+    Result isFollow(Long followUserId);
+
+    Result commonFollows(Long otherId);
+
+    Result followCount(Long userId);
 }
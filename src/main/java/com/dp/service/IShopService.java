@@ -15,5 +15,15 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopService extends IService<Shop> {
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result suggestShopName(String prefix, Integer limit);
+
+    void onShopChanged(String message);
 }
@@ -4,6 +4,8 @@ import com.dp.dto.Result;
 import com.dp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +15,24 @@ import com.baomidou.mybatisplus.extension.service.IService;
  * @since 2021-12-22
  */
 public interface IShopTypeService extends IService<ShopType> {
+
+    /**
+     * 按排序返回全部商铺类型, 结果是预先序列化好的 Result JSON
+     */
+    byte[] queryTypeList();
+
+    /**
+     * 从数据库重新加载商铺类型并发布新的快照
+     */
+    void refreshTypeList();
+
+    /**
+     * 发布新的商铺类型快照: 写入redis列表、递增版本号并通知其他节点
+     */
+    void cacheTypeList(List<ShopType> typeList);
+
+    /**
+     * 收到其他节点发布的版本号, 版本比本地新时重新加载
+     */
+    void onTypeListChanged(String version);
 }
@@ -0,0 +1,24 @@
+package com.dp.service;
+
+import com.dp.dto.Result;
+import com.dp.entity.SignMonth;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ *
+ * @author zhou
+ * @since 2023-09-12
+ */
+public interface ISignMonthService extends IService<SignMonth> {
+
+    Result sign();
+
+    Result signCount();
+
+    Result signStat(String month);
+
+    void compact();
+}
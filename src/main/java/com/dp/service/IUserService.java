@@ -3,9 +3,12 @@ package com.dp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.dp.dto.LoginFormDTO;
 import com.dp.dto.Result;
+import com.dp.dto.UserDTO;
 import com.dp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -20,4 +23,16 @@ public interface IUserService extends IService<User> {
     Result sendCode(String phone, HttpSession session);
 
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    /**
+     * 登出: 删除token对应的会话, 所有节点的本地缓存同步失效
+     */
+    Result logout(String token);
+
+    /**
+     * 批量查询用户的基本信息, 优先走缓存
+     * @param ids 用户id
+     * @return 用户id -> 用户信息, 按ids的顺序排列, 不存在的用户不包含在内
+     */
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
 }
@@ -1,6 +1,7 @@
 package com.dp.service;
 
 import com.dp.dto.Result;
+import com.dp.dto.VoucherListDTO;
 import com.dp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -16,5 +17,9 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    VoucherListDTO loadVoucherOfShop(Long shopId);
+
+    void addVoucher(Voucher voucher);
+
     void addSeckillVoucher(Voucher voucher);
 }
@@ -1,9 +1,13 @@
 package com.dp.service.impl;
 
+import com.dp.dto.Result;
 import com.dp.entity.BlogComments;
 import com.dp.mapper.BlogCommentsMapper;
 import com.dp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.dp.utils.UserHolder;
+import com.dp.utils.WriteBehindCounter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 /**
@@ -17,4 +21,25 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper , BlogComments> implements IBlogCommentsService {
 
+    @Autowired
+    private WriteBehindCounter writeBehindCounter;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        if (comment.getBlogId() == null) {
+            return Result.fail("博文ID不能为空");
+        }
+        // 1. 保存评论
+        comment.setUserId(UserHolder.getUser().getId());
+        if (comment.getParentId() == null) {
+            comment.setParentId(0L);
+        }
+        if (comment.getAnswerId() == null) {
+            comment.setAnswerId(0L);
+        }
+        save(comment);
+        // 2. 博文的评论数只累加内存中的计数, 由定时任务批量写回数据库
+        writeBehindCounter.increment(WriteBehindCounter.Type.BLOG_COMMENTS , comment.getBlogId() , 1);
+        return Result.ok(comment.getId());
+    }
 }
@@ -1,11 +1,38 @@
 package com.dp.service.impl;
 
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.dp.dto.Result;
+import com.dp.dto.ScrollResult;
+import com.dp.dto.UserDTO;
 import com.dp.entity.Blog;
 import com.dp.mapper.BlogMapper;
 import com.dp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.dp.service.IUserService;
+import com.dp.utils.FeedFanout;
+import com.dp.utils.FeedTimeline;
+import com.dp.utils.SystemConstants;
+import com.dp.utils.UserHolder;
+import com.dp.utils.WriteBehindCounter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.dp.contants.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +44,144 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    // 点赞/取消点赞脚本
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Autowired
+    private IUserService userService;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private FeedFanout feedFanout;
+    @Autowired
+    private FeedTimeline feedTimeline;
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        // 1. 根据点赞数分页查询
+        Page<Blog> page = query()
+                .orderByDesc("liked")
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+        // 2. 获取当前页数据
+        List<Blog> records = page.getRecords();
+        // 3. 批量查询作者, 避免每篇博文单独查一次用户
+        fillAuthor(records);
+        // 4. 当前用户是否点过赞
+        fillIsLike(records);
+        return Result.ok(records);
+    }
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 1. 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 2. 保存探店博文
+        if (!save(blog)) {
+            return Result.fail("新增笔记失败");
+        }
+        // 3. 异步推送到粉丝的收件箱, 不阻塞发布请求
+        feedFanout.publish(user.getId(), blog.getId(), System.currentTimeMillis());
+        // 4. 返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        // 1. 合并收件箱和关注的大V的发件箱, 按时间戳滚动分页
+        Long userId = UserHolder.getUser().getId();
+        FeedTimeline.FeedPage page = feedTimeline.page(userId, max, offset, SystemConstants.MAX_PAGE_SIZE);
+        ScrollResult result = new ScrollResult();
+        result.setMinTime(page.getMinTime());
+        result.setOffset(page.getOffset());
+        List<Long> ids = page.getIds();
+        if (ids.isEmpty()) {
+            result.setList(Collections.emptyList());
+            return Result.ok(result);
+        }
+        // 2. 批量查询博文, 保持时间顺序, 已删除的博文跳过
+        Map<Long, Blog> blogMap = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, Function.identity()));
+        List<Blog> blogs = ids.stream().map(blogMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+        fillAuthor(blogs);
+        fillIsLike(blogs);
+        // 3. 封装并返回
+        result.setList(blogs);
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result queryMyBlog(Integer current) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        // 根据用户查询
+        Page<Blog> page = query()
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+        // 获取当前页数据
+        List<Blog> records = page.getRecords();
+        fillIsLike(records);
+        return Result.ok(records);
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        // 1. 获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        // 2. 执行脚本, 已点赞则取消, 否则点赞; 点赞数的变化直接写入计数的变化日志, 由定时任务批量写回数据库
+        Long result = stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, WriteBehindCounter.Type.BLOG_LIKED.deltaKey()),
+                id.toString(), userId.toString(), String.valueOf(System.currentTimeMillis()));
+        return Result.ok(Objects.equals(result, 1L));
+    }
+
+    @Override
+    public Result queryBlogLikes(Long id, Integer limit) {
+        // 1. 最早点赞的前N个用户 ZRANGE key 0 N-1
+        int n = Math.min(Math.max(limit, 1), SystemConstants.MAX_PAGE_SIZE);
+        Set<String> top = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, n - 1);
+        if (top == null || top.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2. 批量查询用户, 保持点赞的先后顺序
+        List<Long> ids = top.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(ids);
+        List<UserDTO> userDTOs = ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+        return Result.ok(userDTOs);
+    }
+
+    private void fillAuthor(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds);
+        blogs.forEach(blog -> {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        });
+    }
+
+    // 一次pipeline查询当前用户对每篇博文的点赞记录, 未登录时都是未点赞
+    private void fillIsLike(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()) {
+            blogs.forEach(blog -> blog.setIsLike(false));
+            return;
+        }
+        String userId = user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                stringConnection.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
 }
@@ -1,11 +1,29 @@
 package com.dp.service.impl;
 
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.dp.dto.Result;
+import com.dp.dto.UserDTO;
 import com.dp.entity.Follow;
 import com.dp.mapper.FollowMapper;
 import com.dp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.dp.service.IUserService;
+import com.dp.utils.FollowGraph;
+import com.dp.utils.UserHolder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +35,110 @@ import org.springframework.stereotype.Service;
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    @Autowired
+    private FollowGraph followGraph;
+    @Autowired
+    private IUserService userService;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        // 1. 获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        // 2. 关注, 已经关注过的不重复插入, 并发重复插入由唯一索引拦截
+        if (BooleanUtil.isTrue(isFollow)) {
+            boolean inserted = false;
+            if (!isFollowing(userId, followUserId)) {
+                try {
+                    inserted = save(new Follow().setUserId(userId).setFollowUserId(followUserId));
+                } catch (DuplicateKeyException e) {
+                    // 已经关注
+                }
+            }
+            try {
+                followGraph.follow(userId, followUserId);
+            } catch (RuntimeException e) {
+                // redis写入失败时撤销本次插入, 保持数据库和redis一致
+                if (inserted) {
+                    removeFollow(userId, followUserId);
+                }
+                throw e;
+            }
+            return Result.ok();
+        }
+        // 3. 取关
+        boolean removed = removeFollow(userId, followUserId);
+        try {
+            followGraph.unfollow(userId, followUserId);
+        } catch (RuntimeException e) {
+            // redis写入失败时恢复删除的关系
+            if (removed) {
+                save(new Follow().setUserId(userId).setFollowUserId(followUserId));
+            }
+            throw e;
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(isFollowing(userId, followUserId));
+    }
+
+    @Override
+    public Result commonFollows(Long otherId) {
+        // 1. 求交集
+        Long userId = UserHolder.getUser().getId();
+        List<Long> ids;
+        if (followGraph.isBuilt()) {
+            ids = followGraph.commonFollows(userId, otherId);
+        } else {
+            Set<Long> mine = followUserIds(userId).stream().collect(Collectors.toSet());
+            ids = followUserIds(otherId).stream().filter(mine::contains).collect(Collectors.toList());
+        }
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2. 批量查询用户
+        Map<Long, UserDTO> users = userService.queryUserDTOs(ids);
+        List<UserDTO> userDTOs = ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+        return Result.ok(userDTOs);
+    }
+
+    @Override
+    public Result followCount(Long userId) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        if (followGraph.isBuilt()) {
+            counts.put("follows", followGraph.followCount(userId));
+            counts.put("followers", followGraph.followerCount(userId));
+        } else {
+            counts.put("follows", query().eq("user_id", userId).count().longValue());
+            counts.put("followers", query().eq("follow_user_id", userId).count().longValue());
+        }
+        return Result.ok(counts);
+    }
+
+    private boolean removeFollow(Long userId, Long followUserId) {
+        return remove(new QueryWrapper<Follow>().eq("user_id", userId).eq("follow_user_id", followUserId));
+    }
+
+    // 关注关系在redis中构建完成后直接查询集合, 否则查询数据库
+    private boolean isFollowing(Long userId, Long followUserId) {
+        if (followGraph.isBuilt()) {
+            return followGraph.isFollowing(userId, followUserId);
+        }
+        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
+        return count != null && count > 0;
+    }
+
+    private List<Long> followUserIds(Long userId) {
+        List<Long> ids = new ArrayList<>();
+        for (Follow follow : query().select("follow_user_id").eq("user_id", userId).list()) {
+            ids.add(follow.getFollowUserId());
+        }
+        return ids;
+    }
 }
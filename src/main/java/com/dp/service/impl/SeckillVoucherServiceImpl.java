@@ -1,11 +1,25 @@
 package com.dp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.dp.entity.SeckillVoucher;
+import com.dp.entity.VoucherOrder;
 import com.dp.mapper.SeckillVoucherMapper;
+import com.dp.mapper.VoucherOrderMapper;
 import com.dp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.dp.contants.RedisConstants.SECKILL_ORDER_KEY;
+import static com.dp.contants.RedisConstants.SECKILL_STOCK_KEY;
+import static com.dp.contants.RedisConstants.SECKILL_TIME_KEY;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -17,4 +31,36 @@ import org.springframework.stereotype.Service;
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    // 每个pipeline写入的下单用户数量
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Override
+    public void cacheSeckillVoucher(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        // 1. 已经下过单的用户写入下单用户集合, 在库存和秒杀时间写入之前完成, 脚本才不会放行重复下单
+        seedOrderedUsers(voucherId);
+        // 2. 秒杀时间, 以毫秒时间戳保存, 供lua脚本直接比较
+        Map<String, String> window = new HashMap<>(2);
+        window.put("begin", String.valueOf(seckillVoucher.getBeginTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        window.put("end", String.valueOf(seckillVoucher.getEndTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_TIME_KEY + voucherId, window);
+        // 3. 库存只在不存在时写入, 避免覆盖redis中已经扣减过的库存
+        stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_STOCK_KEY + voucherId, seckillVoucher.getStock().toString());
+    }
+
+    // 从数据库加载已经下单的用户, 每批一次 SADD seckill:order:{voucherId}
+    private void seedOrderedUsers(Long voucherId) {
+        List<Object> userIds = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                .select("DISTINCT user_id").eq("voucher_id", voucherId));
+        String key = SECKILL_ORDER_KEY + voucherId;
+        for (int from = 0; from < userIds.size(); from += SEED_BATCH_SIZE) {
+            List<Object> batch = userIds.subList(from, Math.min(from + SEED_BATCH_SIZE, userIds.size()));
+            stringRedisTemplate.opsForSet().add(key, batch.stream().map(String::valueOf).toArray(String[]::new));
+        }
+    }
 }
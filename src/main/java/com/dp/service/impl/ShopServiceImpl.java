@@ -1,26 +1,45 @@
 package com.dp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONString;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.dp.dto.Result;
 import com.dp.entity.Shop;
 import com.dp.mapper.ShopMapper;
 import com.dp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.dp.utils.BloomFilterManager;
 import com.dp.utils.CacheClient;
-import com.dp.utils.RedisData;
+import com.dp.utils.RefreshAheadScheduler;
+import com.dp.utils.ShopNameIndex;
+import com.dp.utils.ShopSpatialIndex;
+import com.dp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import javax.annotation.PostConstruct;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.dp.contants.RedisConstants.*;
 
@@ -32,13 +51,29 @@ import static com.dp.contants.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    @Autowired
+    private CacheClient cacheClient;
+    @Autowired
+    private BloomFilterManager bloomFilterManager;
+    @Autowired
+    private RefreshAheadScheduler refreshAheadScheduler;
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
     @Autowired
-    private CacheClient cacheClient;
+    private ShopSpatialIndex shopSpatialIndex;
+    @Autowired
+    private ShopNameIndex shopNameIndex;
+
+    // 热点商铺在逻辑过期之前由后台提前刷新
+    @PostConstruct
+    private void init(){
+        refreshAheadScheduler.register(CACHE_SHOP_KEY , LOCK_SHOP_KEY , Shop.class ,
+                Long::valueOf , this::getById , CACHE_SHOP_TTL , TimeUnit.MINUTES);
+    }
 
     // ID id , String keyPrefix , String lockPrefix ,
     //                                             Class<R> type , Function<ID , R> callback ,
@@ -55,6 +90,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1. 写入数据库
+        save(shop);
+        // 2. 写入布隆过滤器, 否则新商铺会被当作不存在的id拦截
+        bloomFilterManager.add(CACHE_SHOP_KEY , shop.getId());
+        // 3. 写入商铺类型对应的GEO集合, 以及空间索引和名称索引
+        updateShopGeo(null , shop);
+        indexShop(shop);
+        // 4. 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -62,211 +110,189 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(id == null){
             return Result.fail("店铺ID不能为空");
         }
+        Shop old = getById(id);
         // 1. 更新数据库
         updateById(shop);
-        // 2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 2. 删除缓存, 同时通知集群内各节点清除本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
+        // 3. 坐标、类型或名称可能变化, 同步GEO集合和本地索引
+        Shop latest = getById(id);
+        updateShopGeo(old , latest);
+        if (latest != null) {
+            indexShop(latest);
+        }
         return Result.ok();
     }
 
-
-
-
-
-    // 初始版本的查询,未做缓存穿透和缓存击穿的解决方案
-    public Result queryCacheById(Long id) {
-        // 1. 从redis查询商铺缓存
-        String shopCache = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2. 判断是否存在
-        if(StrUtil.isNotBlank(shopCache)){
-            Shop shop = JSONUtil.toBean(shopCache, Shop.class, false);
-            // 3. 存在,直接返回
-            return Result.ok(shop);
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        // 1. 没有坐标, 按类型分页查询
+        if (x == null || y == null) {
+            return queryShopPageByType(typeId , current);
         }
-        // 如果查到的缓存是"" , 因为缓存过空字符串,所以就是防止缓存穿透的,直接返回即可
-        if(shopCache != null){
-            return Result.fail("店铺不存在");
+        // 2. 计算分页参数
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        // 3. 按距离由近到远查询 GEORADIUS key x y radius m WITHDIST ASC COUNT end
+        String key = SHOP_GEO_KEY + typeId;
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list;
+        try {
+            GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(key ,
+                    new Circle(new Point(x , y) , new Distance(SystemConstants.NEARBY_SHOP_RADIUS , RedisGeoCommands.DistanceUnit.METERS)) ,
+                    RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(end));
+            list = results == null ? Collections.emptyList() : results.getContent();
+            if (list.isEmpty() && !BooleanUtil.isTrue(stringRedisTemplate.hasKey(key))) {
+                // GEO集合还没有加载, 改用本地的空间索引
+                return queryNearbyFromIndex(typeId , current , x , y);
+            }
+        } catch (DataAccessException e) {
+            // redis不可用, 改用本地的空间索引
+            log.warn("GEO查询失败, 使用本地空间索引, typeId: {}", typeId, e);
+            return queryNearbyFromIndex(typeId , current , x , y);
         }
-        Shop shop = getById(id);
-        // 4. 不存在,根据id查询数据库
-        if(shop == null){
-            // 缓存空对象,用于防止缓存穿透,设置TTL为2分钟
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id , "" , CACHE_NULL_TTL , TimeUnit.MINUTES);
-            // 5. 不存在,返回错误
-            return Result.fail("商铺不存在");
+        if (list.size() <= from) {
+            // 没有下一页了
+            return Result.ok(Collections.emptyList());
         }
-        // 6. 存在,写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id , JSONUtil.toJsonStr(shop) , CACHE_SHOP_TTL , TimeUnit.MINUTES);
-        // 7. 返回数据
-        return Result.ok(shop);
+        // 4. 截取 from ~ end 的部分, 记录商铺id和距离
+        List<Long> ids = new ArrayList<>(list.size() - from);
+        Map<Long , Double> distances = new HashMap<>(list.size() * 2);
+        list.stream().skip(from).forEach(result -> {
+            Long id = Long.valueOf(result.getContent().getName());
+            ids.add(id);
+            distances.put(id , result.getDistance().getValue());
+        });
+        // 5. 批量查询商铺
+        return Result.ok(withDistance(queryShops(ids) , distances));
     }
 
-    // 基于互斥锁的方式解决缓存击穿问题
-    public Shop queryWithMutex(Long id){
-        // 1. 从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-
-        // --------------------------此处解决缓存穿透的问题----------------------------------
-        // 2 . 判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) { // 此处的判断如果为"",那么依然返回值是false,所以依然会进入到后续操作
-            // 3. 存在直接返回    获取到商铺对象
-            // 此处因为要将缓存穿透的解决方式进行封装,所以返回的是一个shop对象
-            return JSONUtil.toBean(shopJson, Shop.class); // 返回商品对象
+    // 基于进程内空间索引的附近商铺查询, 索引还没有构建完成时按类型分页
+    private Result queryNearbyFromIndex(Integer typeId, Integer current, Double x, Double y) {
+        if (!shopSpatialIndex.isReady()) {
+            return queryShopPageByType(typeId , current);
         }
-        // 判断获取到的值是否为空字符串
-        if(shopJson != null){  // 如果不进行判断,那么就会造成需要继续去访问数据库,依然对数据库造成压力
-            // 返回错误信息 将原来的返回错误信息的操作更改为返回null
-            return  null;
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        List<ShopSpatialIndex.Neighbor> neighbors = shopSpatialIndex.nearest(Long.valueOf(typeId) , x , y ,
+                end , SystemConstants.NEARBY_SHOP_RADIUS);
+        if (neighbors.size() <= from) {
+            return Result.ok(Collections.emptyList());
         }
-
-        // -------------------------此处开始解决缓存穿透问题-----------------------
-        // 4. 实现缓存重建
-        // 4.1 获取互斥锁
-        Shop shop = null;
+        List<Long> ids = new ArrayList<>(neighbors.size() - from);
+        Map<Long , Double> distances = new HashMap<>(neighbors.size() * 2);
+        for (ShopSpatialIndex.Neighbor neighbor : neighbors.subList(from , neighbors.size())) {
+            ids.add(neighbor.getId());
+            distances.put(neighbor.getId() , neighbor.getDistance());
+        }
+        List<Shop> shops;
         try {
-            boolean flag = tryLock(LOCK_SHOP_KEY + id);
-            if (!flag) {
-                Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-
-            //----------------------获取到锁之后进行二次检查------------------------
-            shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-            // 进行二次检查 , 如果获取到锁之后,再查询一次redis中是否存在数据,如果已经有了,则可以直接返回
-            if (StrUtil.isNotBlank(shopJson)) {  // 如果是非空直接进行返回
-                // 3. 存在直接返回    获取到商铺对象
-                // 此处因为要将缓存穿透的解决方式进行封装,所以返回的是一个shop对象
-                return JSONUtil.toBean(shopJson, Shop.class); // 返回商品对象
-            }
-            // 判断获取到的值是否为空字符串
-            if (shopJson != null) {  // 如果不进行判断,那么就会造成需要继续去访问数据库,依然对数据库造成压力
-                // 返回错误信息 将原来的返回错误信息的操作更改为返回null
-                return null;
-            }
+            shops = queryShops(ids);
+        } catch (DataAccessException e) {
+            // redis不可用时直接查询数据库, 再按距离排序
+            Map<Long , Shop> shopMap = listByIds(ids).stream().collect(Collectors.toMap(Shop::getId , Function.identity()));
+            shops = ids.stream().map(shopMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+        }
+        return Result.ok(withDistance(shops , distances));
+    }
 
-            //----------------------当检查到还是不存在时,再进行热点key重建------------------------
-            // 4. 不存在,根据ID查询数据库
-            shop = getById(id);
-            if (shop == null) {
-                // 如果不存在,则将空值存储到redis中,用于规避缓存穿透
-                stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 5. 不存在直接返回错误 将原来的返回错误信息的操作更改为返回null
-                return null;
-            }
-            // 6. 写入redis
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        }catch (InterruptedException e){
-            throw new RuntimeException(e);
-        }finally {
-            // 释放锁
-            unlock(LOCK_SHOP_KEY + id);
+    // 在副本上设置距离, 不修改本地缓存中的对象
+    private List<Shop> withDistance(List<Shop> cachedShops, Map<Long , Double> distances) {
+        List<Shop> shops = new ArrayList<>(cachedShops.size());
+        for (Shop cached : cachedShops) {
+            Shop shop = BeanUtil.copyProperties(cached , Shop.class);
+            shop.setDistance(distances.get(shop.getId()));
+            shops.add(shop);
         }
-        // 7. 返回
-        return shop;
+        return shops;
     }
 
-    // 获取锁方法
-    private boolean tryLock(String key){
-        //  如果直接将其返回,可能会出现拆箱和装箱之间的问题
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    private Result queryShopPageByType(Integer typeId, Integer current) {
+        // 1. 数据库只分页查询id
+        Page<Shop> page = query()
+                .select("id")
+                .eq("type_id", typeId)
+                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+        List<Long> ids = page.getRecords().stream().map(Shop::getId).collect(Collectors.toList());
+        // 2. 返回数据
+        return Result.ok(queryShops(ids));
     }
-    // 释放锁方法
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
+
+    // 商铺详情批量走缓存, 未命中的一次listByIds查询, 结果与ids顺序一致
+    private List<Shop> queryShops(List<Long> ids) {
+        return new ArrayList<>(cacheClient.queryBatch(ids , CACHE_SHOP_KEY , Shop.class ,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId , Function.identity())) ,
+                CACHE_SHOP_TTL , TimeUnit.MINUTES).values());
     }
-    // 预防缓存穿透的方法
-    public Shop queryWithPassThrough(Long id){
-        // 1. 从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2 . 判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) { // 此处的判断如果为"",那么依然返回值是false,所以依然会进入到后续操作
-            // 3. 存在直接返回    获取到商铺对象
-            // 此处因为要将缓存穿透的解决方式进行封装,所以返回的是一个shop对象
-//            Shop shop = JSONUtil.toBean(shopJson, Shop.class); // 将返回的商品序列化为对应的商铺对象
-            return JSONUtil.toBean(shopJson, Shop.class); // 返回商品对象
-        }
-        // 判断获取到的值是否为空字符串
-        if(shopJson != null){  // 如果不进行判断,那么就会造成需要继续去访问数据库,依然对数据库造成压力
-            // 返回错误信息 将原来的返回错误信息的操作更改为返回null
-            return  null;
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        // 1. 没有关键字或者索引还没有构建完成, 直接分页查询数据库
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
         }
-        // 4. 不存在,根据ID查询数据库
-        Shop shop = getById(id);
-        if (shop == null) {
-            // 如果不存在,则将空值存储到redis中,用于规避缓存穿透
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id , "" , CACHE_NULL_TTL , TimeUnit.MINUTES);
-            // 5. 不存在直接返回错误 将原来的返回错误信息的操作更改为返回null
-            return null;
+        // 2. 名称索引按评分、销量排序并分页, 只返回id
+        List<Long> ids = shopNameIndex.search(name , (current - 1) * SystemConstants.MAX_PAGE_SIZE ,
+                SystemConstants.MAX_PAGE_SIZE);
+        // 3. 批量查询商铺
+        return Result.ok(queryShops(ids));
+    }
+
+    @Override
+    public Result suggestShopName(String prefix, Integer limit) {
+        if (StrUtil.isBlank(prefix) || !shopNameIndex.isReady()) {
+            return Result.ok(Collections.emptyList());
         }
-        // 6. 写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop) , CACHE_SHOP_TTL , TimeUnit.MINUTES);
-        // 7. 返回
-        return shop;
+        return Result.ok(shopNameIndex.suggest(prefix , limit));
     }
 
-    // 通过线程池的方式进行热点key的重新构建,避免任务太多造成线程过多,导致服务宕机
-    private final static ExecutorService HOT_KEY_REBUILD = Executors.newFixedThreadPool(10);
-    //------------------基于逻辑过期解决缓存击穿问题-----------------------
-    public Shop queryWithLogicalExpire(Long id) {
-        // 1. 从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2 . 判断是否存在
-        if (StrUtil.isBlank(shopJson)) {
-            if("".equals(shopJson)){
-                return null;
-            }
-            // 如果是空,证明访问的是非热点key,以带TTL的方式进行缓存,解决缓存穿透
-            Shop shop = queryWithPassThrough(id);
-            // 2.1 不存在,直接返回
-            return shop;
+    @Override
+    public void onShopChanged(String message) {
+        Shop shop = JSONUtil.toBean(message , Shop.class);
+        shopSpatialIndex.put(shop.getId() , shop.getTypeId() , shop.getX() , shop.getY());
+        shopNameIndex.put(shop.getId() , shop.getName() , shop.getScore() , shop.getSold());
+    }
+
+    // 更新本节点的空间索引和名称索引, 并通知集群中其他节点
+    private void indexShop(Shop shop) {
+        // 消息里只带索引需要的字段
+        Shop indexed = new Shop().setId(shop.getId()).setTypeId(shop.getTypeId()).setX(shop.getX()).setY(shop.getY())
+                .setName(shop.getName()).setScore(shop.getScore()).setSold(shop.getSold());
+        String message = JSONUtil.toJsonStr(indexed);
+        onShopChanged(message);
+        try {
+            stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL , message);
+        } catch (Exception e) {
+            // 本节点已经更新, 其他节点在下次重启全量加载时修正
+            log.warn("商铺变更通知发送失败, shopId: {}", shop.getId(), e);
         }
-        // 3. 存在,判断缓存是否过期
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        // 4. 未过期,直接返回
-        if(redisData.getExpireTime().isAfter(LocalDateTime.now())){
-            return shop;
+    }
+
+    // 维护商铺类型对应的GEO集合, 类型变化时从旧类型的集合中移除
+    private void updateShopGeo(Shop old, Shop shop) {
+        if (shop == null) {
+            return;
         }
-        // 5. 过期,尝试获取互斥锁
-        boolean flag = tryLock(LOCK_SHOP_KEY + id);
-        // 5.1 如果没有获取到锁,直接将旧数据返回
-        if(!flag){
-            return shop;
+        String member = shop.getId().toString();
+        if (old != null && old.getTypeId() != null && !Objects.equals(old.getTypeId() , shop.getTypeId())) {
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId() , member);
         }
-        // 6. 获取锁成功
-        // 6.1 再次进行判断redis中的数据的逻辑过期是否已过期
-        shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        // 6.2 未过期,直接返回
-        if(redisData.getExpireTime().isAfter(LocalDateTime.now())){
-            return shop;
+        if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId() , new Point(shop.getX() , shop.getY()) , member);
         }
-        // 6.3 获取到锁之后,如果逻辑过期时间还是已经过期的,则开启独立线程
-        HOT_KEY_REBUILD.submit(()-> {
-            try {
-                this.saveShop2Redis(id);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }finally {
-                unlock(LOCK_SHOP_KEY + id);
-            }
-        });
-        // 返回旧数据
-        return shop;
+    }
+
+    // 基于互斥锁的方式解决缓存击穿问题
+    public Shop queryWithMutex(Long id){
+        return cacheClient.queryWithMutex(id , CACHE_SHOP_KEY , LOCK_SHOP_KEY , Shop.class ,
+                this::getById , CACHE_SHOP_TTL , TimeUnit.MINUTES);
     }
 
     // ------------------------------提前数据预热-------------------------------
     // 将数据存入到redis中
     public void saveShop2Redis(Long id){
-        // 1. 查询店铺数据
-        Shop byId = getById(id);
-        // 2. 封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(byId);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(30));
-        // 3. 写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id , JSONUtil.toJsonStr(redisData));
+        cacheClient.saveShop2Redis(id , CACHE_SHOP_KEY , this::getById , 30L , TimeUnit.SECONDS);
     }
 }
@@ -5,10 +5,21 @@ import com.dp.entity.ShopType;
 import com.dp.mapper.ShopTypeMapper;
 import com.dp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.dp.contants.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -17,7 +28,132 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // 当前的商铺类型快照, 整体替换, 读取时不加锁
+    private volatile Snapshot snapshot;
+
+    @Override
+    public byte[] queryTypeList() {
+        // 稳定状态下直接返回预先序列化好的响应, 不访问数据库和redis
+        Snapshot current = snapshot;
+        if (current == null) {
+            current = loadSnapshot();
+        }
+        return current.response;
+    }
+
+    @Override
+    public void refreshTypeList() {
+        cacheTypeList(query().orderByAsc("sort").list());
+    }
+
+    @Override
+    public void cacheTypeList(List<ShopType> typeList) {
+        List<String> jsonList = new ArrayList<>(typeList.size());
+        for (ShopType shopType : typeList) {
+            jsonList.add(toJson(shopType));
+        }
+        // 1. 在一个事务中替换redis中的列表并递增版本号
+        List<Object> results = stringRedisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) throws DataAccessException {
+                operations.multi();
+                operations.delete(CACHE_SHOP_TYPE_KEY);
+                if (!jsonList.isEmpty()) {
+                    operations.opsForList().rightPushAll(CACHE_SHOP_TYPE_KEY, jsonList);
+                }
+                operations.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+                return operations.exec();
+            }
+        });
+        long version = (Long) results.get(results.size() - 1);
+        // 2. 替换本节点的快照, 并通知其他节点重新加载
+        install(version, typeList);
+        stringRedisTemplate.convertAndSend(SHOP_TYPE_REFRESH_CHANNEL, String.valueOf(version));
+    }
+
+    @Override
+    public void onTypeListChanged(String version) {
+        Snapshot current = snapshot;
+        if (current == null || Long.parseLong(version) > current.version) {
+            loadSnapshot();
+        }
+    }
+
+    // 从redis加载快照, redis中没有数据时从数据库重建
+    private synchronized Snapshot loadSnapshot() {
+        List<Object> results = stringRedisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) throws DataAccessException {
+                operations.multi();
+                operations.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+                operations.opsForList().range(CACHE_SHOP_TYPE_KEY, 0, -1);
+                return operations.exec();
+            }
+        });
+        String version = (String) results.get(0);
+        @SuppressWarnings("unchecked")
+        List<String> jsonList = (List<String>) results.get(1);
+        if (version == null || jsonList == null || jsonList.isEmpty()) {
+            refreshTypeList();
+            return snapshot;
+        }
+        List<ShopType> typeList = new ArrayList<>(jsonList.size());
+        for (String json : jsonList) {
+            try {
+                typeList.add(objectMapper.readValue(json, ShopType.class));
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("商铺类型缓存解析失败", e);
+            }
+        }
+        return install(Long.parseLong(version), typeList);
+    }
+
+    // 只会用更新的版本替换当前快照
+    private synchronized Snapshot install(long version, List<ShopType> typeList) {
+        Snapshot current = snapshot;
+        if (current != null && current.version >= version) {
+            return current;
+        }
+        byte[] response;
+        try {
+            response = objectMapper.writeValueAsBytes(Result.ok(typeList));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("商铺类型序列化失败", e);
+        }
+        Snapshot next = new Snapshot(version, response);
+        snapshot = next;
+        log.debug("商铺类型快照已更新, version: {}, size: {}", version, typeList.size());
+        return next;
+    }
+
+    private String toJson(ShopType shopType) {
+        try {
+            return objectMapper.writeValueAsString(shopType);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("商铺类型序列化失败", e);
+        }
+    }
+
+    // 不可变的商铺类型快照
+    private static final class Snapshot {
+        private final long version;
+        // 预先序列化好的接口响应
+        private final byte[] response;
+
+        private Snapshot(long version, byte[] response) {
+            this.version = version;
+            this.response = response;
+        }
+    }
 }
@@ -0,0 +1,268 @@
+package com.dp.service.impl;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.dp.dto.Result;
+import com.dp.entity.SignMonth;
+import com.dp.mapper.SignMonthMapper;
+import com.dp.service.ISignMonthService;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.dp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.dp.contants.RedisConstants.*;
+
+/**
+ * <p>
+ *  服务实现类: 签到记录保存在redis的位图中, 每个用户每月一个key sign:{userId}:{yyyyMM}, 第n天对应第n-1位;
+ *  每晚把位图压缩成 tb_sign_month 中的一行, 过期的位图只从数据库读取
+ * </p>
+ *
+ * @author zhou
+ * @since 2023-09-12
+ */
+@Slf4j
+@Service
+public class SignMonthServiceImpl extends ServiceImpl<SignMonthMapper, SignMonth> implements ISignMonthService {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+    // 连续签到最多向前追溯的月数
+    private static final int MAX_STREAK_MONTHS = 12;
+    // 压缩时每批处理的key数量
+    private static final int COMPACT_BATCH_SIZE = 500;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Override
+    public Result sign() {
+        // 1. 获取登录用户和日期
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        // 2. SETBIT key offset 1, 返回原来的值
+        Boolean signed = stringRedisTemplate.opsForValue()
+                .setBit(signKey(userId, YearMonth.from(today)), today.getDayOfMonth() - 1, true);
+        if (BooleanUtil.isTrue(signed)) {
+            return Result.fail("今天已经签到过了");
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result signCount() {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(streak(LocalDate.now(), month -> monthBits(userId, month)));
+    }
+
+    /**
+     * 截止到today的连续签到天数
+     * @param monthBits 读取一个月的签到记录, 每个月最多读取一次
+     */
+    static int streak(LocalDate today, Function<YearMonth, Integer> monthBits) {
+        LocalDate date = today;
+        YearMonth month = YearMonth.from(date);
+        int bits = monthBits.apply(month);
+        // 1. 今天还没有签到时从昨天开始算, 当天结束之前连续签到不会中断
+        if (!isSigned(bits, date)) {
+            date = date.minusDays(1);
+        }
+        // 2. 从后向前逐天检查, 跨月时读取上个月的记录
+        int count = 0;
+        int months = 0;
+        while (true) {
+            if (!YearMonth.from(date).equals(month)) {
+                if (++months > MAX_STREAK_MONTHS) {
+                    break;
+                }
+                month = YearMonth.from(date);
+                bits = monthBits.apply(month);
+            }
+            if (!isSigned(bits, date)) {
+                break;
+            }
+            count++;
+            date = date.minusDays(1);
+        }
+        return count;
+    }
+
+    @Override
+    public Result signStat(String month) {
+        Long userId = UserHolder.getUser().getId();
+        YearMonth yearMonth;
+        try {
+            yearMonth = StrUtil.isBlank(month) ? YearMonth.now() : YearMonth.parse(month, MONTH_FORMATTER);
+        } catch (DateTimeParseException e) {
+            return Result.fail("月份格式错误, 应为yyyyMM");
+        }
+        // 1. 当月签到天数 BITCOUNT key, 位图已经过期时读取数据库
+        String key = signKey(userId, yearMonth);
+        Long bitCount = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.bitCount(key.getBytes(StandardCharsets.UTF_8)));
+        int bits = monthBits(userId, yearMonth);
+        long count = bitCount == null || bitCount == 0 ? Integer.bitCount(bits) : bitCount;
+        // 2. 签到的日期
+        List<Integer> days = new ArrayList<>();
+        for (int day = 1; day <= yearMonth.lengthOfMonth(); day++) {
+            if ((bits & (1 << (day - 1))) != 0) {
+                days.add(day);
+            }
+        }
+        Map<String, Object> stat = new LinkedHashMap<>();
+        stat.put("month", yearMonth.format(MONTH_FORMATTER));
+        stat.put("count", count);
+        stat.put("days", days);
+        return Result.ok(stat);
+    }
+
+    /**
+     * 每晚把昨天所在月份的位图压缩写入数据库, 并让位图在下下个月初过期;
+     * 当月和上个月的签到始终可以从redis读取, 更早的从数据库读取
+     */
+    @Override
+    @Scheduled(cron = "${dp.sign.compact-cron:0 30 3 * * ?}")
+    public void compact() {
+        String owner = UUID.randomUUID().toString(true);
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(LOCK_SIGN_COMPACT_KEY, owner, LOCK_SIGN_COMPACT_TTL, TimeUnit.MINUTES);
+        if (!BooleanUtil.isTrue(locked)) {
+            return;
+        }
+        try {
+            YearMonth month = YearMonth.from(LocalDate.now().minusDays(1));
+            long start = System.currentTimeMillis();
+            long count = compact(month);
+            log.info("签到记录压缩完成, 月份: {}, 用户数: {}, 耗时: {}ms",
+                    month.format(MONTH_FORMATTER), count, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("签到记录压缩失败", e);
+        } finally {
+            // 只释放自己持有的锁
+            if (owner.equals(stringRedisTemplate.opsForValue().get(LOCK_SIGN_COMPACT_KEY))) {
+                stringRedisTemplate.delete(LOCK_SIGN_COMPACT_KEY);
+            }
+        }
+    }
+
+    private long compact(YearMonth month) {
+        String suffix = ":" + month.format(MONTH_FORMATTER);
+        Date expireAt = Date.from(month.plusMonths(2).atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+        BitFieldSubCommands command = monthCommand(month);
+        long[] count = {0};
+        // SCAN sign:*:{yyyyMM}, 每批一次pipeline读取位图并设置过期时间, 再批量写入数据库
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            ScanOptions options = ScanOptions.scanOptions().match(USER_SIGN_KEY + "*" + suffix).count(1000).build();
+            List<String> keys = new ArrayList<>(COMPACT_BATCH_SIZE);
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                    if (keys.size() >= COMPACT_BATCH_SIZE) {
+                        count[0] += compactBatch(keys, month, command, expireAt);
+                        keys.clear();
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            count[0] += compactBatch(keys, month, command, expireAt);
+            return null;
+        });
+        return count[0];
+    }
+
+    private int compactBatch(List<String> keys, YearMonth month, BitFieldSubCommands command, Date expireAt) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        // 每个key依次返回 BITFIELD 和 EXPIREAT 的结果
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                connection.bitField(rawKey, command);
+                connection.expireAt(rawKey, expireAt.getTime() / 1000);
+            }
+            return null;
+        });
+        List<SignMonth> signs = new ArrayList<>(keys.size());
+        int monthValue = Integer.parseInt(month.format(MONTH_FORMATTER));
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            int bits = toBits((List<?>) results.get(i * 2), month);
+            if (bits == 0) {
+                continue;
+            }
+            Long userId = Long.valueOf(key.substring(USER_SIGN_KEY.length(), key.lastIndexOf(':')));
+            signs.add(new SignMonth().setUserId(userId).setMonth(monthValue)
+                    .setBits(bits).setSignCount(Integer.bitCount(bits)));
+        }
+        if (!signs.isEmpty()) {
+            getBaseMapper().upsertBatch(signs);
+        }
+        return signs.size();
+    }
+
+    // 一个月的签到记录: redis中的位图优先, 位图不存在(已过期)时读取数据库
+    private int monthBits(Long userId, YearMonth month) {
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(signKey(userId, month), monthCommand(month));
+        int bits = toBits(result, month);
+        if (bits != 0 || !month.isBefore(YearMonth.now())) {
+            return bits;
+        }
+        SignMonth signMonth = query().eq("user_id", userId)
+                .eq("month", Integer.parseInt(month.format(MONTH_FORMATTER))).one();
+        return signMonth == null || signMonth.getBits() == null ? 0 : signMonth.getBits();
+    }
+
+    // BITFIELD key GET u{当月天数} 0, 第1天在最高位
+    private static BitFieldSubCommands monthCommand(YearMonth month) {
+        return BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(month.lengthOfMonth())).valueAt(0);
+    }
+
+    // 把BITFIELD的结果转换为第n天对应第n-1位的格式
+    static int toBits(List<?> result, YearMonth month) {
+        if (result == null || result.isEmpty() || result.get(0) == null) {
+            return 0;
+        }
+        long value = ((Number) result.get(0)).longValue();
+        int length = month.lengthOfMonth();
+        int bits = 0;
+        for (int i = 0; i < length; i++) {
+            if ((value >>> (length - 1 - i) & 1) == 1) {
+                bits |= 1 << i;
+            }
+        }
+        return bits;
+    }
+
+    private static boolean isSigned(int bits, LocalDate date) {
+        return (bits & (1 << (date.getDayOfMonth() - 1))) != 0;
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+}
@@ -3,6 +3,7 @@ package com.dp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.dp.dto.LoginFormDTO;
 import com.dp.dto.Result;
@@ -10,7 +11,10 @@ import com.dp.dto.UserDTO;
 import com.dp.entity.User;
 import com.dp.mapper.UserMapper;
 import com.dp.service.IUserService;
+import com.dp.utils.BloomFilterManager;
+import com.dp.utils.CacheClient;
 import com.dp.utils.RegexUtils;
+import com.dp.utils.SessionCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -18,10 +22,14 @@ import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpSession;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.dp.contants.RedisConstants.*;
 import static com.dp.contants.RedisConstants.LOGIN_CODE_KEY;
@@ -40,6 +48,12 @@ import static com.dp.utils.SystemConstants.*;
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private BloomFilterManager bloomFilterManager;
+    @Autowired
+    private CacheClient cacheClient;
+    @Autowired
+    private SessionCache sessionCache;
 
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -92,11 +106,34 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isBlank(token)) {
+            return Result.ok();
+        }
+        sessionCache.invalidate(token);
+        return Result.ok();
+    }
+
+    @Override
+    public Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        // 一次MGET查缓存, 未命中的用户一次listByIds查询数据库
+        return cacheClient.queryBatch(ids , CACHE_USER_KEY , UserDTO.class ,
+                missIds -> listByIds(missIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user , UserDTO.class))
+                        .collect(Collectors.toMap(UserDTO::getId , Function.identity())) ,
+                CACHE_USER_TTL , TimeUnit.MINUTES);
+    }
+
     private User createUserWithPhone(LoginFormDTO loginForm) {
         User user = new User();
         user.setPhone(loginForm.getPhone());
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
         save(user);
+        bloomFilterManager.add(CACHE_USER_KEY , user.getId());
         return user;
     }
 }
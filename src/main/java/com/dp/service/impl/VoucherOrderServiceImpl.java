@@ -1,5 +1,9 @@
 package com.dp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import cn.hutool.core.util.StrUtil;
 import com.dp.dto.Result;
 import com.dp.entity.SeckillVoucher;
 import com.dp.entity.VoucherOrder;
@@ -9,11 +13,44 @@ import com.dp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.dp.utils.RedisIdWorker;
 import com.dp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.dp.contants.RedisConstants.*;
 
 /**
  * <p>
@@ -23,6 +60,7 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -30,46 +68,353 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private ISeckillVoucherService iSeckillVoucherService;
     @Autowired
     private RedisIdWorker redisIdWorker;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    // 代理对象, 保证异步写库时事务生效
+    @Lazy
+    @Autowired
+    private IVoucherOrderService proxy;
+    // 是否开启异步秒杀: 资格在redis中判断, 订单由消费者组批量写入数据库
+    @Value("${dp.seckill.async:true}")
+    private boolean seckillAsync;
+    // 消费者名称, 未配置时以主机名和进程号区分, 同一台机器上的多个实例不会冲突
+    @Value("${dp.seckill.consumer-name:}")
+    private String consumerName;
+    // 一条消息最多投递的次数, 超过后转入死信stream
+    @Value("${dp.seckill.max-delivery-count:16}")
+    private long maxDeliveryCount;
+    // 等待订单处理线程写完当前批次的最长秒数
+    @Value("${dp.seckill.shutdown-seconds:5}")
+    private long shutdownSeconds;
+
+    // 秒杀资格判断脚本
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+    // 秒杀脚本返回值对应的失败信息, 下标即返回值
+    private static final String[] SECKILL_FAIL_MESSAGES = {
+            null, "优惠卷已经被抢完了", "用户已经抢过该优惠卷了", "秒杀尚未开始或已经结束", "优惠卷不存在"
+    };
+    private static final int SECKILL_NOT_LOADED = 4;
+    // 每次从stream中读取的订单数量
+    private static final int ORDER_BATCH_SIZE = 50;
+    // 其他消费者的pending消息空闲超过该时间后由当前消费者接管
+    private static final Duration PENDING_CLAIM_IDLE = Duration.ofMinutes(1);
+    // 每次检查的pending消息数量
+    private static final long PENDING_SCAN_SIZE = 1000;
+    // 处理pending-list失败后的重试间隔上限
+    private static final long PENDING_RETRY_MAX_MILLIS = 5000;
+    // 处理订单消息的线程
+    private final ExecutorService seckillOrderExecutor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "seckill-order-handler"));
+    private volatile boolean running = true;
+    // 定时任务接管了pending消息, 等待订单处理线程处理自己的pending-list
+    private volatile boolean pendingClaimed;
+
+    // 脚本不在启动时预先加载: DefaultRedisScript 先执行EVALSHA, 脚本不存在时自动改用EVAL, redis不可用时应用仍然可以启动
+    @PostConstruct
+    private void init() {
+        if (!seckillAsync) {
+            return;
+        }
+        if (StrUtil.isBlank(consumerName)) {
+            consumerName = "c-" + NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+        }
+        createGroupIfAbsent();
+        seckillOrderExecutor.submit(new VoucherOrderHandler());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        seckillOrderExecutor.shutdown();
+        try {
+            if (!seckillOrderExecutor.awaitTermination(shutdownSeconds, TimeUnit.SECONDS)) {
+                // 未确认的消息留在pending-list中, 下次启动或由其他节点接管后继续处理
+                log.warn("订单处理线程未能在{}秒内结束", shutdownSeconds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 定期接管其他消费者空闲过久的pending消息, 节点崩溃后遗留的消息不必等到某个节点重启
+     */
+    @Scheduled(fixedDelayString = "${dp.seckill.claim-interval-millis:30000}")
+    public void sweepIdlePending() {
+        if (seckillAsync && running && claimIdlePending()) {
+            pendingClaimed = true;
+        }
+    }
+
+    // 创建消费者组 XGROUP CREATE stream.orders g1 0 MKSTREAM
+    private void createGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    "CREATE".getBytes(StandardCharsets.UTF_8),
+                    SECKILL_STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                    SECKILL_STREAM_GROUP.getBytes(StandardCharsets.UTF_8),
+                    "0".getBytes(StandardCharsets.UTF_8),
+                    "MKSTREAM".getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            // 消费者组已经存在
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                log.error("创建消费者组失败", e);
+            }
+        }
+    }
+
+    // 接管其他消费者空闲过久的pending消息, 节点崩溃或更换消费者名称后遗留的消息由存活的节点继续处理, 返回是否接管了消息
+    private boolean claimIdlePending() {
+        try {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, Range.unbounded(), PENDING_SCAN_SIZE);
+            List<RecordId> ids = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (!consumerName.equals(message.getConsumerName())
+                        && message.getElapsedTimeSinceLastDelivery().compareTo(PENDING_CLAIM_IDLE) >= 0) {
+                    ids.add(message.getId());
+                }
+            }
+            if (ids.isEmpty()) {
+                return false;
+            }
+            // XCLAIM stream.orders g1 consumer min-idle-time id... JUSTID
+            stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.xClaimJustId(
+                    SECKILL_STREAM_KEY.getBytes(StandardCharsets.UTF_8), SECKILL_STREAM_GROUP, consumerName,
+                    RedisStreamCommands.XClaimOptions.minIdle(PENDING_CLAIM_IDLE).ids(ids)));
+            log.info("接管其他消费者的pending消息: {}条", ids.size());
+            return true;
+        } catch (Exception e) {
+            log.error("接管pending消息失败", e);
+            return false;
+        }
+    }
+
+    private class VoucherOrderHandler implements Runnable {
+        @Override
+        public void run() {
+            // 0. 先处理上次运行遗留的消息: 接管已经下线的消费者的pending消息, 再处理自己的pending-list
+            claimIdlePending();
+            handlePendingList();
+            while (running) {
+                try {
+                    // 1. 定时任务接管了其他消费者的消息, 先处理pending-list
+                    if (pendingClaimed) {
+                        pendingClaimed = false;
+                        handlePendingList();
+                    }
+                    // 2. 获取消息队列中的订单 XREADGROUP GROUP g1 c1 COUNT 50 BLOCK 2000 STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_STREAM_GROUP, consumerName),
+                            StreamReadOptions.empty().count(ORDER_BATCH_SIZE).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(SECKILL_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    // 3. 没有消息, 继续下一次循环
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    // 4. 批量写入数据库并确认
+                    handleRecords(list);
+                } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
+                    log.error("处理订单异常", e);
+                    // stream或消费者组被删除(例如redis重启后数据丢失), 重新创建消费者组
+                    if (String.valueOf(e.getMessage()).contains("NOGROUP")) {
+                        createGroupIfAbsent();
+                    }
+                    handlePendingList();
+                }
+            }
+        }
+
+        // 处理已读取但未确认的消息, 逐条写库, 投递次数超过上限的消息转入死信stream, 不再阻塞后面的消息
+        private void handlePendingList() {
+            int failures = 0;
+            while (running) {
+                boolean failed = false;
+                try {
+                    // 1. 获取pending-list中的订单 XREADGROUP GROUP g1 c1 COUNT 50 STREAMS stream.orders 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_STREAM_GROUP, consumerName),
+                            StreamReadOptions.empty().count(ORDER_BATCH_SIZE),
+                            StreamOffset.create(SECKILL_STREAM_KEY, ReadOffset.from("0"))
+                    );
+                    // 2. pending-list中没有消息, 结束
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    // 3. 逐条处理, 一条消息失败不影响同批的其他消息
+                    for (MapRecord<String, Object, Object> record : list) {
+                        try {
+                            handleRecords(Collections.singletonList(record));
+                        } catch (Exception e) {
+                            failed = true;
+                            if (deliveryCount(record.getId()) >= maxDeliveryCount) {
+                                deadLetter(record, e);
+                            } else {
+                                log.warn("处理pending-list订单失败, id: {}", record.getId(), e);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    failed = true;
+                    log.error("处理pending-list订单异常", e);
+                }
+                // 4. 有失败时按指数退避后重试, 避免在数据库故障时空转
+                failures = failed ? failures + 1 : 0;
+                if (failures > 0 && !sleep(Math.min(20L << Math.min(failures, 8), PENDING_RETRY_MAX_MILLIS))) {
+                    return;
+                }
+            }
+        }
+
+        // 消息已经投递给当前消费者的次数, 每次从pending-list读取都会加一
+        private long deliveryCount(RecordId id) {
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(SECKILL_STREAM_KEY,
+                    Consumer.from(SECKILL_STREAM_GROUP, consumerName), Range.closed(id.getValue(), id.getValue()), 1L);
+            return pending.isEmpty() ? 0 : pending.get(0).getTotalDeliveryCount();
+        }
+
+        // 转入死信stream后确认, 死信中的订单需要人工核对后补单或者归还库存
+        private void deadLetter(MapRecord<String, Object, Object> record, Exception e) {
+            Map<Object, Object> value = new HashMap<>(record.getValue());
+            value.put("sourceId", record.getId().getValue());
+            value.put("error", String.valueOf(e.getMessage()));
+            stringRedisTemplate.opsForStream().add(SECKILL_DEAD_LETTER_KEY, value);
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, record.getId());
+            log.error("订单消息超过最大投递次数, 已转入死信stream, id: {}, 订单: {}", record.getId(), record.getValue(), e);
+        }
+
+        private boolean sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void handleRecords(List<MapRecord<String, Object, Object>> list) {
+            List<VoucherOrder> orders = new ArrayList<>(list.size());
+            for (MapRecord<String, Object, Object> record : list) {
+                orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            }
+            proxy.saveVoucherOrders(orders);
+            // ACK stream.orders g1 id...
+            RecordId[] ids = list.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, ids);
+        }
+    }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 1. 查询优惠卷
-        SeckillVoucher seckillVoucher = iSeckillVoucherService.getById(voucherId);
-        if(seckillVoucher == null){
-            return Result.fail("优惠卷不存在");
-        }
-        // 2. 判断秒杀是否开始
-        if(LocalDateTime.now().isBefore(seckillVoucher.getBeginTime()) ||
-                // 3. 判断秒杀是否结束
-                seckillVoucher.getEndTime().isBefore(LocalDateTime.now())){
-            return Result.fail("秒杀尚未开始或已经结束");
-        }
-        return createVoucherOrder(voucherId, seckillVoucher);
+        Long userId = UserHolder.getUser().getId();
+        // 1. 异步下单时先在本地生成订单id(号段或雪花模式, 不访问redis), 扣减库存和投递订单在同一个脚本中完成
+        Long orderId = seckillAsync ? redisIdWorker.nextLocalId("order") : null;
+        // 2. 执行lua脚本, 一次往返完成秒杀时间、库存、一人一单的判断
+        int r = executeSeckillScript(voucherId, userId, orderId);
+        if (r == SECKILL_NOT_LOADED) {
+            // 2.1 秒杀信息还没有加载到redis, 从数据库加载后重试一次
+            SeckillVoucher seckillVoucher = iSeckillVoucherService.getById(voucherId);
+            if(seckillVoucher == null){
+                return Result.fail("优惠卷不存在");
+            }
+            iSeckillVoucherService.cacheSeckillVoucher(seckillVoucher);
+            r = executeSeckillScript(voucherId, userId, orderId);
+        }
+        // 3. 判断结果是否为0
+        if (r != 0) {
+            // 3.1 不为0, 代表没有购买资格
+            return Result.fail(SECKILL_FAIL_MESSAGES[r]);
+        }
+        // 4. 异步下单时订单已经投递到stream, 直接返回订单id
+        if (seckillAsync) {
+            return Result.ok(orderId);
+        }
+        // 5. 同步下单, 写入数据库失败时归还redis中的库存和下单资格
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(redisIdWorker.nextId("order"));
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        try {
+            proxy.createVoucherOrder(voucherOrder);
+        } catch (RuntimeException e) {
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId);
+            // 数据库中已经有该用户的订单时保留下单记录
+            if (query().eq("user_id", userId).eq("voucher_id", voucherId).count() == 0) {
+                stringRedisTemplate.opsForSet().remove(SECKILL_ORDER_KEY + voucherId, userId.toString());
+            }
+            throw e;
+        }
+        return Result.ok(voucherOrder.getId());
     }
+
+    // 执行秒杀资格判断脚本, 异步下单时额外传入stream的key和订单id
+    private int executeSeckillScript(Long voucherId, Long userId, Long orderId) {
+        List<String> keys = new ArrayList<>(4);
+        keys.add(SECKILL_STOCK_KEY + voucherId);
+        keys.add(SECKILL_ORDER_KEY + voucherId);
+        keys.add(SECKILL_TIME_KEY + voucherId);
+        if (seckillAsync) {
+            keys.add(SECKILL_STREAM_KEY);
+        }
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, keys,
+                voucherId.toString(), userId.toString(), orderId == null ? "" : orderId.toString(),
+                String.valueOf(System.currentTimeMillis()));
+        return result == null ? SECKILL_NOT_LOADED : result.intValue();
+    }
+
+    @Override
+    @Transactional
+    public void saveVoucherOrders(List<VoucherOrder> orders) {
+        // 1. 过滤掉已经写入过的订单, 保证消息重复投递时的幂等
+        Set<Long> existIds = listByIds(orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        List<VoucherOrder> newOrders = orders.stream()
+                .filter(order -> !existIds.contains(order.getId()))
+                .collect(Collectors.toList());
+        if (newOrders.isEmpty()) {
+            return;
+        }
+        // 2. 按优惠券合并扣减库存, 每张优惠券只需一条update
+        Map<Long, Long> countByVoucher = newOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        for (Map.Entry<Long, Long> entry : countByVoucher.entrySet()) {
+            boolean success = iSeckillVoucherService.update().setSql("stock = stock - " + entry.getValue())
+                    .eq("voucher_id", entry.getKey()).ge("stock", entry.getValue()).update();
+            if (!success) {
+                // 回滚整批, 消息留在pending-list中重试, 多次失败后转入死信stream
+                throw new RuntimeException("扣减库存失败, voucherId: " + entry.getKey() + ", count: " + entry.getValue());
+            }
+        }
+        // 3. 批量创建订单
+        saveBatch(newOrders);
+    }
+
+    @Override
     @Transactional
-    public Result createVoucherOrder(Long voucherId, SeckillVoucher seckillVoucher) {
-        // 判断用户是否下过单了
-        Integer count = query().eq("user_id", UserHolder.getUser().getId()).eq("voucher_id", voucherId).count();
-        if(count > 0){
-            return Result.fail("用户已经抢过该优惠卷了");
-        }
-        // 4. 判断库存是否充足
-        if(seckillVoucher.getStock() <= 0){
-            return Result.fail("优惠卷已经被抢完了");
-        }
-        // 5. 扣减库存
-        boolean success = iSeckillVoucherService.update().setSql("stock = stock - 1").eq("voucher_id", voucherId)
-                .gt("stock" , 0).update();
+    public void createVoucherOrder(VoucherOrder voucherOrder) {
+        // 1. 一人一单的兜底判断, redis中的下单记录丢失时仍然有效
+        Integer count = query().eq("user_id", voucherOrder.getUserId())
+                .eq("voucher_id", voucherOrder.getVoucherId()).count();
+        if (count > 0) {
+            throw new RuntimeException("用户已经抢过该优惠卷了");
+        }
+        // 2. 扣减库存, 资格已经在redis中判断过, 这里的库存条件只作为兜底
+        boolean success = iSeckillVoucherService.update().setSql("stock = stock - 1")
+                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock" , 0).update();
         if(!success){
-            return Result.fail("扣减库存失败");
+            throw new RuntimeException("扣减库存失败");
         }
-        // 6. 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setVoucherId(voucherId);
-        voucherOrder.setId(redisIdWorker.nextId("order"));
-        voucherOrder.setUserId(UserHolder.getUser().getId());
-        // 7. 返回订单id
+        // 3. 创建订单
         save(voucherOrder);
-        return Result.ok(voucherOrder.getId());
     }
 }
@@ -1,17 +1,29 @@
 package com.dp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.dp.dto.Result;
+import com.dp.dto.VoucherListDTO;
 import com.dp.entity.Voucher;
 import com.dp.mapper.VoucherMapper;
 import com.dp.entity.SeckillVoucher;
 import com.dp.service.ISeckillVoucherService;
 import com.dp.service.IVoucherService;
+import com.dp.utils.CacheClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.dp.contants.RedisConstants.*;
 
 /**
  * <p>
@@ -26,13 +38,72 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 查询优惠券信息, 整个列表作为逻辑过期的缓存
+        VoucherListDTO voucherList = cacheClient.queryWithLogicalExpire(shopId , CACHE_SHOP_VOUCHER_KEY ,
+                LOCK_SHOP_VOUCHER_KEY , VoucherListDTO.class , this::loadVoucherOfShop ,
+                CACHE_SHOP_VOUCHER_TTL , TimeUnit.MINUTES);
         // 返回结果
-        return Result.ok(vouchers);
+        return Result.ok(voucherList == null ? Collections.emptyList() : withStock(voucherList.getVouchers()));
+    }
+
+    @Override
+    public VoucherListDTO loadVoucherOfShop(Long shopId) {
+        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        return new VoucherListDTO(shopId , withoutStock(vouchers));
+    }
+
+    // 秒杀库存随下单不断变化, 不放在列表缓存中; 缓存前去掉库存, 查询时再读取
+    private List<Voucher> withoutStock(List<Voucher> vouchers) {
+        vouchers.forEach(voucher -> voucher.setStock(null));
+        return vouchers;
+    }
+
+    // 补上秒杀券的实时库存: 一次MGET读取redis中的秒杀库存, 还没有加载到redis的从数据库读取
+    private List<Voucher> withStock(List<Voucher> cached) {
+        // 秒杀券关联了秒杀信息, 生效时间不为空
+        List<Voucher> seckills = cached.stream().filter(v -> v.getBeginTime() != null).collect(Collectors.toList());
+        if (seckills.isEmpty()) {
+            return cached;
+        }
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(seckills.stream()
+                .map(v -> SECKILL_STOCK_KEY + v.getId()).collect(Collectors.toList()));
+        Map<Long, Integer> stockById = new HashMap<>(seckills.size() * 2);
+        List<Long> missIds = new ArrayList<>();
+        for (int i = 0; i < seckills.size(); i++) {
+            String stock = stocks == null ? null : stocks.get(i);
+            if (stock == null) {
+                missIds.add(seckills.get(i).getId());
+            } else {
+                stockById.put(seckills.get(i).getId(), Math.max(Integer.parseInt(stock), 0));
+            }
+        }
+        if (!missIds.isEmpty()) {
+            seckillVoucherService.listByIds(missIds)
+                    .forEach(sv -> stockById.put(sv.getVoucherId(), sv.getStock()));
+        }
+        // 缓存中的对象可能同时被本地缓存引用, 复制后再设置库存
+        return cached.stream().map(voucher -> {
+            if (!stockById.containsKey(voucher.getId())) {
+                return voucher;
+            }
+            Voucher copy = BeanUtil.copyProperties(voucher, Voucher.class);
+            copy.setStock(stockById.get(voucher.getId()));
+            return copy;
+        }).collect(Collectors.toList());
+    }
+
+    @Override
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        // 删除店铺优惠券列表的缓存
+        cacheClient.delete(CACHE_SHOP_VOUCHER_KEY + voucher.getShopId());
     }
 
     @Override
@@ -47,5 +118,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 保存秒杀库存和秒杀时间到redis中, 秒杀资格直接在redis中判断
+        seckillVoucherService.cacheSeckillVoucher(seckillVoucher);
+        // 删除店铺优惠券列表的缓存
+        cacheClient.delete(CACHE_SHOP_VOUCHER_KEY + voucher.getShopId());
     }
 }
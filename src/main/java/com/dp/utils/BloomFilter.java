@@ -0,0 +1,119 @@
+package com.dp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @Author zhou
+ * @Description // 线程安全的布隆过滤器, 位数组基于AtomicLongArray, k个哈希函数通过双重哈希得到
+ * @Date 2023/9/3
+ */
+public class BloomFilter {
+
+	private final AtomicLongArray bits;
+	private final long bitSize;
+	private final int hashCount;
+	// 已经置为1的位数, 用于估算当前的误判率
+	private final AtomicLong bitCount = new AtomicLong();
+	// 写入的元素个数(包含重复写入)
+	private final AtomicLong insertions = new AtomicLong();
+
+	/**
+	 * @param expectedInsertions 预计写入的元素个数
+	 * @param fpp 期望的误判率
+	 */
+	public BloomFilter(long expectedInsertions, double fpp) {
+		long n = Math.max(1, expectedInsertions);
+		// m = -n * ln(p) / (ln2)^2
+		long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+		int words = (int) Math.max(1, (m + 63) >>> 6);
+		this.bits = new AtomicLongArray(words);
+		this.bitSize = (long) words << 6;
+		// k = m / n * ln2
+		this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+	}
+
+	public void put(Object element) {
+		long h1 = hash(element);
+		long h2 = mix64(h1 ^ 0x9E3779B97F4A7C15L);
+		for (int i = 0; i < hashCount; i++) {
+			if (setBit(((h1 + i * h2) & Long.MAX_VALUE) % bitSize)) {
+				bitCount.incrementAndGet();
+			}
+		}
+		insertions.incrementAndGet();
+	}
+
+	public boolean mightContain(Object element) {
+		long h1 = hash(element);
+		long h2 = mix64(h1 ^ 0x9E3779B97F4A7C15L);
+		for (int i = 0; i < hashCount; i++) {
+			if (!getBit(((h1 + i * h2) & Long.MAX_VALUE) % bitSize)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 按当前置位比例估算的误判率 (bitCount / bitSize) ^ k
+	 */
+	public double expectedFpp() {
+		return Math.pow((double) bitCount.get() / bitSize, hashCount);
+	}
+
+	/**
+	 * 位数组占用的内存字节数
+	 */
+	public long memoryBytes() {
+		return bitSize >>> 3;
+	}
+
+	public long insertions() {
+		return insertions.get();
+	}
+
+	public long bitSize() {
+		return bitSize;
+	}
+
+	public int hashCount() {
+		return hashCount;
+	}
+
+	private boolean setBit(long index) {
+		int word = (int) (index >>> 6);
+		long mask = 1L << index;
+		long old;
+		do {
+			old = bits.get(word);
+			if ((old & mask) != 0) {
+				return false;
+			}
+		} while (!bits.compareAndSet(word, old, old | mask));
+		return true;
+	}
+
+	private boolean getBit(long index) {
+		return (bits.get((int) (index >>> 6)) & (1L << index)) != 0;
+	}
+
+	// 统一按字符串计算哈希, 保证 1L 和 "1" 的结果一致(订阅消息中的id是字符串)
+	private static long hash(Object element) {
+		String str = String.valueOf(element);
+		// FNV-1a
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < str.length(); i++) {
+			h ^= str.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix64(h);
+	}
+
+	// MurmurHash3 的 fmix64
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+}
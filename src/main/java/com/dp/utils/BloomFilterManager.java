@@ -0,0 +1,129 @@
+package com.dp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+
+import static com.dp.contants.RedisConstants.BLOOM_FILTER_CHANNEL;
+
+/**
+ * @Author zhou
+ * @Description // 按缓存key前缀管理布隆过滤器, 拦截不存在的id, 防止缓存穿透
+ * @Date 2023/9/3
+ */
+@Slf4j
+@Component
+public class BloomFilterManager {
+
+	private final StringRedisTemplate stringRedisTemplate;
+	private final MeterRegistry registry;
+	// 已经构建完成的过滤器
+	private final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+	// 正在构建的过滤器, 构建期间新增的id也要写入, 避免切换后丢失
+	private final Map<String, BloomFilter> building = new ConcurrentHashMap<>();
+
+	public BloomFilterManager(StringRedisTemplate stringRedisTemplate, MeterRegistry registry) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.registry = registry;
+	}
+
+	/**
+	 * 判断id是否可能存在, 对应前缀的过滤器还没有构建完成时直接放行
+	 */
+	public boolean mightContain(String keyPrefix, Object id) {
+		BloomFilter filter = filters.get(keyPrefix);
+		return filter == null || filter.mightContain(id);
+	}
+
+	/**
+	 * 新增id, 并通知集群中其他节点
+	 */
+	public void add(String keyPrefix, Object id) {
+		addLocal(keyPrefix, id);
+		stringRedisTemplate.convertAndSend(BLOOM_FILTER_CHANNEL, keyPrefix + id);
+	}
+
+	/**
+	 * 处理其他节点发布的新增消息, 消息内容为 key前缀 + id
+	 */
+	public void onAdded(String key) {
+		for (String keyPrefix : filters.keySet()) {
+			if (key.startsWith(keyPrefix)) {
+				addLocal(keyPrefix, key.substring(keyPrefix.length()));
+				return;
+			}
+		}
+		for (String keyPrefix : building.keySet()) {
+			if (key.startsWith(keyPrefix)) {
+				addLocal(keyPrefix, key.substring(keyPrefix.length()));
+				return;
+			}
+		}
+	}
+
+	private void addLocal(String keyPrefix, Object id) {
+		BloomFilter filter = filters.get(keyPrefix);
+		if (filter != null) {
+			filter.put(id);
+		}
+		BloomFilter next = building.get(keyPrefix);
+		if (next != null) {
+			next.put(id);
+		}
+	}
+
+	/**
+	 * 构建(或重建)过滤器, 构建完成后原子替换
+	 * @param loader 接收一个写入函数, 负责把全部id写入过滤器
+	 */
+	public BloomFilter build(String keyPrefix, long expectedInsertions, double fpp, Consumer<Consumer<Object>> loader) {
+		BloomFilter filter = new BloomFilter(expectedInsertions, fpp);
+		building.put(keyPrefix, filter);
+		try {
+			loader.accept(filter::put);
+			filters.put(keyPrefix, filter);
+		} finally {
+			building.remove(keyPrefix, filter);
+		}
+		registerGauges(keyPrefix);
+		log.info("布隆过滤器构建完成, prefix: {}, 元素: {}, 内存: {}字节, 预估误判率: {}",
+				keyPrefix, filter.insertions(), filter.memoryBytes(), filter.expectedFpp());
+		return filter;
+	}
+
+	// 按前缀注册指标, 读取的是当前生效的过滤器, 重建后自动切换; 重复注册同名指标时Micrometer返回已有的指标
+	private void registerGauges(String keyPrefix) {
+		Gauge.builder("dp.bloom.fpp", filters, m -> gauge(m.get(keyPrefix), BloomFilter::expectedFpp))
+				.description("按当前元素数量估算的误判率")
+				.tag("prefix", keyPrefix)
+				.register(registry);
+		Gauge.builder("dp.bloom.memory", filters, m -> gauge(m.get(keyPrefix), BloomFilter::memoryBytes))
+				.description("位数组占用的内存")
+				.tag("prefix", keyPrefix)
+				.baseUnit("bytes")
+				.register(registry);
+		Gauge.builder("dp.bloom.insertions", filters, m -> gauge(m.get(keyPrefix), BloomFilter::insertions))
+				.description("已写入的元素数量")
+				.tag("prefix", keyPrefix)
+				.register(registry);
+	}
+
+	private static double gauge(BloomFilter filter, ToDoubleFunction<BloomFilter> value) {
+		return filter == null ? Double.NaN : value.applyAsDouble(filter);
+	}
+
+	/**
+	 * 已构建的过滤器, 用于查看误判率和内存占用
+	 */
+	public Map<String, BloomFilter> filters() {
+		return Collections.unmodifiableMap(filters);
+	}
+}
@@ -1,22 +1,39 @@
 package com.dp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.dp.entity.Shop;
+import com.dp.config.CacheProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.dp.contants.RedisConstants.*;
-import static com.dp.contants.RedisConstants.CACHE_SHOP_KEY;
 
 /**
  * @Author zhou
@@ -28,20 +45,194 @@ import static com.dp.contants.RedisConstants.CACHE_SHOP_KEY;
 public class CacheClient {
 
 	private final StringRedisTemplate stringRedisTemplate;
+    // 缓存值以字节读写, 编解码由codec负责
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+    private final CacheCodec codec;
+    // 空值标记, 用于缓存穿透
+    private static final byte[] NULL_VALUE = new byte[0];
+    // 一条失效消息中多个key之间的分隔符
+    private static final String INVALIDATE_KEY_SEPARATOR = "\n";
+    // 一级缓存: 进程内的本地缓存, 挡在redis前面, 热点key直接在本地命中, 省去网络往返和JSON解析
+    private final Cache<String, Object> localCache;
+    // 同一个jvm内, 同一个key的并发缓存重建共享同一个future, 只有一个线程真正查询数据库
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    // 未抢到分布式锁时, 等待其他节点重建缓存的最大重试次数
+    private static final int MUTEX_MAX_RETRIES = 10;
+    // 重试的退避时间上限(毫秒)
+    private static final long MUTEX_MAX_BACKOFF_MILLIS = 200L;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    // 布隆过滤器, 拦截一定不存在的id
+    private final BloomFilterManager bloomFilterManager;
+    // 按key前缀统计的命中率、重建次数和耗时
+    private final CacheMetrics metrics;
+    // 逻辑过期后的异步重建交给全局共享的有界线程池
+    private final CacheRebuildExecutor rebuildExecutor;
+    // 统计逻辑过期key的访问频率, 供提前刷新使用
+    private final HotKeyTracker hotKeyTracker;
+    // 按key前缀的TTL策略和随机抖动
+    private final CacheProperties cacheProperties;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> byteRedisTemplate,
+                       CacheCodec codec, CacheProperties cacheProperties, BloomFilterManager bloomFilterManager,
+                       CacheMetrics metrics, CacheRebuildExecutor rebuildExecutor, HotKeyTracker hotKeyTracker) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.codec = codec;
+        this.bloomFilterManager = bloomFilterManager;
+        this.metrics = metrics;
+        this.rebuildExecutor = rebuildExecutor;
+        this.hotKeyTracker = hotKeyTracker;
+        this.cacheProperties = cacheProperties;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(cacheProperties.getLocalMaximumSize())
+                .expireAfterWrite(cacheProperties.getLocalExpireSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        // 本地缓存的指标
+        CaffeineCacheMetrics.monitor(metrics.registry() , localCache , "local");
     }
     // 带TTL的过期时间
     public void set(String key , Object value , Long time , TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key , JSONUtil.toJsonStr(value) , time , unit);
+        byteRedisTemplate.opsForValue().set(key , codec.encode(value) , ttlSeconds(key , time , unit) , TimeUnit.SECONDS);
+        publishInvalidate(key);
     }
     // 逻辑过期的设置key
     public void setLogicalExpire(String key , Object value , Long time , TimeUnit unit){
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key , JSONUtil.toJsonStr(value));
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(ttlSeconds(key , time , unit)));
+        byteRedisTemplate.opsForValue().set(key , codec.encode(redisData));
+        publishInvalidate(key);
+    }
+
+    // 批量写入逻辑过期的数据, 一次pipeline完成, 已经存在的key跳过(SET NX), 返回实际写入的key
+    // 每个key单独计算带随机抖动的过期时间, 避免批量写入的key在同一时刻过期
+    public List<String> setLogicalExpireBatchIfAbsent(Map<String , ?> values , Long time , TimeUnit unit){
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<String> keys = new ArrayList<>(values.keySet());
+        List<Object> results = byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                RedisData redisData = new RedisData();
+                redisData.setData(values.get(key));
+                redisData.setExpireTime(now.plusSeconds(ttlSeconds(key , time , unit)));
+                connection.set(key.getBytes(StandardCharsets.UTF_8) , codec.encode(redisData) ,
+                        Expiration.persistent() , RedisStringCommands.SetOption.SET_IF_ABSENT);
+            }
+            return null;
+        });
+        List<String> written = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                written.add(keys.get(i));
+            }
+        }
+        // 一条消息通知其他节点清除这一批key
+        publishInvalidate(written);
+        return written;
+    }
+
+    // 删除缓存: 同时删除redis和本地缓存, 并通知集群中其他节点清除各自的本地缓存
+    public void delete(String key){
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+        publishInvalidate(key);
+    }
+
+    // 只清除本节点的本地缓存
+    public void evictLocal(String key){
+        localCache.invalidate(key);
+    }
+
+    // 缓存失效的订阅消息, 批量写入时一条消息包含多个key, 以换行分隔
+    public void onInvalidated(String message){
+        for (String key : message.split(INVALIDATE_KEY_SEPARATOR)) {
+            localCache.invalidate(key);
+        }
+    }
+
+    // 本地缓存的命中/未命中统计
+    public CacheStats localCacheStats(){
+        return localCache.stats();
+    }
+
+    // 计算key的过期秒数: 前缀策略配置了ttl时覆盖调用方传入的值, 再加上[0, ttl * 抖动比例]的随机值
+    private long ttlSeconds(String key , Long time , TimeUnit unit){
+        CacheProperties.TtlPolicy policy = policyOf(key);
+        long seconds = policy != null && policy.getTtl() != null ? policy.getTtl().getSeconds() : unit.toSeconds(time);
+        double jitterRatio = policy != null && policy.getJitterRatio() != null
+                ? policy.getJitterRatio() : cacheProperties.getTtlJitterRatio();
+        return withJitter(seconds , jitterRatio);
+    }
+
+    // 空值的过期秒数, 同样加上随机抖动
+    private long nullTtlSeconds(){
+        return withJitter(TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL) , cacheProperties.getTtlJitterRatio());
+    }
+
+    private static long withJitter(long seconds , double jitterRatio){
+        long jitter = (long) (seconds * jitterRatio);
+        return jitter > 0 ? seconds + ThreadLocalRandom.current().nextLong(jitter + 1) : seconds;
+    }
+
+    // 匹配最长的key前缀对应的TTL策略
+    private CacheProperties.TtlPolicy policyOf(String key){
+        CacheProperties.TtlPolicy matched = null;
+        int matchedLength = -1;
+        for (Map.Entry<String , CacheProperties.TtlPolicy> entry : cacheProperties.getTtlPolicies().entrySet()) {
+            if (key.startsWith(entry.getKey()) && entry.getKey().length() > matchedLength) {
+                matched = entry.getValue();
+                matchedLength = entry.getKey().length();
+            }
+        }
+        return matched;
+    }
+
+    // 通过redis的发布订阅广播失效的key
+    private void publishInvalidate(String key){
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL , key);
+    }
+
+    private void publishInvalidate(List<String> keys){
+        if (!keys.isEmpty()) {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL , String.join(INVALIDATE_KEY_SEPARATOR , keys));
+        }
+    }
+
+    // 从本地缓存中获取, 类型不匹配时视为未命中
+    private <R> R getLocal(String key , Class<R> type){
+        Object value = localCache.getIfPresent(key);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    // 解码缓存, 解码失败(例如切换了编码格式)按未命中处理, 由后续流程重建缓存
+    private <R> R decode(String key , byte[] raw , Class<R> type){
+        try {
+            return codec.decode(raw , type);
+        } catch (Exception e) {
+            log.warn("缓存解码失败,按未命中处理, key: {}", key);
+            return null;
+        }
+    }
+
+    private <R> R decodeUnwrapped(String key , byte[] raw , Class<R> type){
+        try {
+            return codec.decodeUnwrapped(raw , type);
+        } catch (Exception e) {
+            log.warn("缓存解码失败,按未命中处理, key: {}", key);
+            return null;
+        }
+    }
+
+    private RedisData decodeLogical(String key , byte[] raw , Class<?> type){
+        try {
+            return codec.decodeLogical(raw , type);
+        } catch (Exception e) {
+            log.warn("缓存解码失败,按未命中处理, key: {}", key);
+            return null;
+        }
     }
 
     // 获取锁方法
@@ -59,102 +250,410 @@ public class CacheClient {
     public <R , ID> R queryWithPassThrough(ID id , String keyPrefix , Class<R> type ,
                                            Function<ID , R> callback , Long time ,
                                            TimeUnit timeUnit){
+        String key = keyPrefix + id;
+        // 0. 先查本地缓存
+        R local = getLocal(key , type);
+        if (local != null) {
+            metrics.localHit(keyPrefix);
+            return local;
+        }
+        // 0.1 布隆过滤器判断id一定不存在,直接返回
+        if (!bloomFilterManager.mightContain(keyPrefix , id)) {
+            metrics.bloomReject(keyPrefix);
+            return null;
+        }
         // 1. 从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(keyPrefix + id);
+        byte[] raw = byteRedisTemplate.opsForValue().get(key);
         // 2 . 判断是否存在
-        if (StrUtil.isNotBlank(json)) { // 此处的判断如果为"",那么依然返回值是false,所以依然会进入到后续操作
+        if (raw != null && raw.length > 0) {
             // 3. 存在直接返回    获取到商铺对象
-            // 此处因为要将缓存穿透的解决方式进行封装,所以返回的是一个shop对象
-//            Shop shop = JSONUtil.toBean(shopJson, Shop.class); // 将返回的商品序列化为对应的商铺对象
-            return JSONUtil.toBean(json, type); // 返回商品对象
+            R r = decode(key , raw , type);
+            if (r != null) {
+                metrics.hit(keyPrefix);
+                localCache.put(key , r);
+                return r;
+            }
         }
-        // 判断获取到的值是否为空字符串
-        if(json != null){  // 如果不进行判断,那么就会造成需要继续去访问数据库,依然对数据库造成压力
+        // 判断获取到的值是否为空值
+        if(raw != null && raw.length == 0){  // 如果不进行判断,那么就会造成需要继续去访问数据库,依然对数据库造成压力
             // 返回错误信息 将原来的返回错误信息的操作更改为返回null
+            metrics.nullHit(keyPrefix);
             return  null;
         }
-        // 4. 不存在,根据ID查询数据库
-        R r = callback.apply(id);
+        // 4. 不存在,根据ID查询数据库, 并发的未命中合并为一次查询
+        metrics.miss(keyPrefix);
+        return singleFlight(key , () -> loadAndCache(id , keyPrefix , callback , time , timeUnit));
+    }
+
+    //------------------批量查询-----------------------
+    // 一次MGET取出全部key, 只对未命中的id调用一次batchLoader, 再通过pipeline一次写回
+    // 返回的map按ids的顺序排列, 不存在的id不会出现在结果中
+    public <R , ID> Map<ID , R> queryBatch(Collection<ID> ids , String keyPrefix , Class<R> type ,
+                                          Function<List<ID> , Map<ID , R>> batchLoader ,
+                                          Long time , TimeUnit timeUnit){
+        Map<ID , R> found = new HashMap<>(ids.size() * 2);
+        // 1. 先查本地缓存, 并用布隆过滤器排除一定不存在的id
+        List<ID> remoteIds = new ArrayList<>(ids.size());
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            String key = keyPrefix + id;
+            R local = getLocal(key , type);
+            if (local != null) {
+                metrics.localHit(keyPrefix);
+                found.put(id , local);
+            } else if (bloomFilterManager.mightContain(keyPrefix , id)) {
+                remoteIds.add(id);
+                keys.add(key);
+            } else {
+                metrics.bloomReject(keyPrefix);
+            }
+        }
+        if (!remoteIds.isEmpty()) {
+            // 2. 一次MGET查询redis
+            List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(keys);
+            List<ID> missIds = new ArrayList<>();
+            for (int i = 0; i < remoteIds.size(); i++) {
+                byte[] raw = values == null ? null : values.get(i);
+                // 2.1 命中空值, 跳过
+                if (raw != null && raw.length == 0) {
+                    metrics.nullHit(keyPrefix);
+                    continue;
+                }
+                // 2.2 命中, 兼容逻辑过期包装的数据
+                R r = raw == null ? null : decodeUnwrapped(keys.get(i) , raw , type);
+                if (r != null) {
+                    metrics.hit(keyPrefix);
+                    found.put(remoteIds.get(i) , r);
+                    localCache.put(keys.get(i) , r);
+                } else {
+                    metrics.miss(keyPrefix);
+                    missIds.add(remoteIds.get(i));
+                }
+            }
+            // 3. 未命中的id一次批量查询数据库
+            if (!missIds.isEmpty()) {
+                Map<ID , R> loaded = metrics.recordRebuild(keyPrefix , () -> batchLoader.apply(missIds));
+                Map<String , byte[]> values2Write = new HashMap<>(missIds.size() * 2);
+                Map<String , byte[]> nullValues = new HashMap<>();
+                for (ID id : missIds) {
+                    String key = keyPrefix + id;
+                    R r = loaded.get(id);
+                    if (r == null) {
+                        // 不存在的id缓存空值,防止缓存穿透
+                        nullValues.put(key , NULL_VALUE);
+                        continue;
+                    }
+                    found.put(id , r);
+                    localCache.put(key , r);
+                    values2Write.put(key , codec.encode(r));
+                }
+                // 4. 一次pipeline写回redis
+                setBatch(values2Write , time , timeUnit , nullValues);
+            }
+        }
+        // 5. 按传入的顺序返回
+        Map<ID , R> result = new LinkedHashMap<>(found.size() * 2);
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id , r);
+            }
+        }
+        return result;
+    }
+
+    // 通过pipeline批量写入带TTL的缓存
+    private void setBatch(Map<String , byte[]> values , Long time , TimeUnit timeUnit ,
+                          Map<String , byte[]> nullValues){
+        if (values.isEmpty() && nullValues.isEmpty()) {
+            return;
+        }
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String , byte[]> entry : values.entrySet()) {
+                connection.setEx(entry.getKey().getBytes(StandardCharsets.UTF_8) ,
+                        ttlSeconds(entry.getKey() , time , timeUnit) , entry.getValue());
+            }
+            for (Map.Entry<String , byte[]> entry : nullValues.entrySet()) {
+                connection.setEx(entry.getKey().getBytes(StandardCharsets.UTF_8) , nullTtlSeconds() , entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    //------------------基于互斥锁解决缓存击穿问题-----------------------
+    // 进程内用single-flight合并并发请求, 进程间用分布式锁保证只有一个节点查询数据库
+    public <R , ID> R queryWithMutex(ID id , String keyPrefix , String lockPrefix ,
+                                     Class<R> type , Function<ID , R> callback ,
+                                     Long time , TimeUnit timeUnit){
+        String key = keyPrefix + id;
+        // 0. 先查本地缓存
+        R local = getLocal(key , type);
+        if (local != null) {
+            metrics.localHit(keyPrefix);
+            return local;
+        }
+        // 0.1 布隆过滤器判断id一定不存在,直接返回
+        if (!bloomFilterManager.mightContain(keyPrefix , id)) {
+            metrics.bloomReject(keyPrefix);
+            return null;
+        }
+        // 1. 从redis查询缓存
+        byte[] raw = byteRedisTemplate.opsForValue().get(key);
+        if (raw != null && raw.length > 0) {
+            R r = decode(key , raw , type);
+            if (r != null) {
+                metrics.hit(keyPrefix);
+                localCache.put(key , r);
+                return r;
+            }
+        }
+        // 2. 命中空值,直接返回
+        if (raw != null && raw.length == 0) {
+            metrics.nullHit(keyPrefix);
+            return null;
+        }
+        // 3. 未命中,重建缓存
+        metrics.miss(keyPrefix);
+        return singleFlight(key , () -> rebuildWithMutex(id , keyPrefix , lockPrefix + id , type , callback , time , timeUnit));
+    }
+
+    private <R , ID> R rebuildWithMutex(ID id , String keyPrefix , String lockKey , Class<R> type ,
+                                        Function<ID , R> callback , Long time , TimeUnit timeUnit){
+        String key = keyPrefix + id;
+        long backoff = 10L;
+        for (int i = 0; i < MUTEX_MAX_RETRIES; i++) {
+            // 1. 获取到锁,二次检查后查询数据库并写入缓存
+            if (tryLock(lockKey)) {
+                try {
+                    byte[] raw = byteRedisTemplate.opsForValue().get(key);
+                    if (raw != null && raw.length > 0) {
+                        R r = decode(key , raw , type);
+                        if (r != null) {
+                            localCache.put(key , r);
+                            return r;
+                        }
+                    }
+                    if (raw != null && raw.length == 0) {
+                        return null;
+                    }
+                    return loadAndCache(id , keyPrefix , callback , time , timeUnit);
+                } finally {
+                    unlock(lockKey);
+                }
+            }
+            metrics.lockFailure(keyPrefix);
+            // 2. 其他节点正在重建,退避等待后检查缓存是否已经写入
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            backoff = Math.min(backoff * 2 , MUTEX_MAX_BACKOFF_MILLIS);
+            byte[] raw = byteRedisTemplate.opsForValue().get(key);
+            if (raw != null && raw.length > 0) {
+                R r = decode(key , raw , type);
+                if (r != null) {
+                    localCache.put(key , r);
+                    return r;
+                }
+            }
+            if (raw != null && raw.length == 0) {
+                return null;
+            }
+        }
+        // 3. 等待超时,直接查询数据库兜底,不再写入缓存
+        log.warn("等待缓存重建超时, key: {}", key);
+        return callback.apply(id);
+    }
+
+    // 查询数据库并写入缓存, 不存在时缓存空值防止缓存穿透
+    private <R , ID> R loadAndCache(ID id , String keyPrefix , Function<ID , R> callback ,
+                                    Long time , TimeUnit timeUnit){
+        String key = keyPrefix + id;
+        R r = metrics.recordRebuild(keyPrefix , () -> callback.apply(id));
         if (r == null) {
             // 如果不存在,则将空值存储到redis中,用于规避缓存穿透
-            stringRedisTemplate.opsForValue().set(keyPrefix + id , "" , time , timeUnit);
-            // 5. 不存在直接返回错误 将原来的返回错误信息的操作更改为返回null
+            byteRedisTemplate.opsForValue().set(key , NULL_VALUE , nullTtlSeconds() , TimeUnit.SECONDS);
             return null;
         }
-        // 6. 写入redis
-        stringRedisTemplate.opsForValue().set(keyPrefix + id, JSONUtil.toJsonStr(r) , time , timeUnit);
-        // 7. 返回
+        // 写入redis和本地缓存
+        byteRedisTemplate.opsForValue().set(key , codec.encode(r) , ttlSeconds(key , time , timeUnit) , TimeUnit.SECONDS);
+        localCache.put(key , r);
         return r;
     }
 
-    // 通过线程池的方式进行热点key的重新构建,避免任务太多造成线程过多,导致服务宕机
-    private final static ExecutorService HOT_KEY_REBUILD = Executors.newFixedThreadPool(10);
+    // single-flight: 同一个key同时只执行一次loader, 其他线程最多等待 singleFlightTimeoutMillis 并共享结果
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key , Supplier<R> loader){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key , future);
+        if (running != null) {
+            try {
+                return (R) running.get(cacheProperties.getSingleFlightTimeoutMillis() , TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new RuntimeException("等待查询超时, key: " + key , e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("等待查询被中断, key: " + key , e);
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (Throwable e) {
+            // Error也要通知等待的线程, 否则它们会一直阻塞
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            // 兜底: 任何情况下都不留下未完成的future
+            if (!future.isDone()) {
+                future.completeExceptionally(new IllegalStateException("查询未完成, key: " + key));
+            }
+            inFlight.remove(key , future);
+        }
+    }
+
     //------------------基于逻辑过期解决缓存击穿问题-----------------------
     public <R , ID> R queryWithLogicalExpire(ID id , String keyPrefix , String lockPrefix ,
                                              Class<R> type , Function<ID , R> callback ,
                                              Long time , TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+        // 0. 先查本地缓存, 本地缓存只保存未过期的数据
+        R local = getLocal(key , type);
+        if (local != null) {
+            metrics.localHit(keyPrefix);
+            hotKeyTracker.recordAccess(keyPrefix , id , null);
+            return local;
+        }
+        // 0.1 布隆过滤器判断id一定不存在,直接返回
+        if (!bloomFilterManager.mightContain(keyPrefix , id)) {
+            metrics.bloomReject(keyPrefix);
+            return null;
+        }
         // 1. 从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(keyPrefix + id);
+        byte[] raw = byteRedisTemplate.opsForValue().get(key);
         // 2 . 判断是否存在
-        if (StrUtil.isBlank(shopJson)) {
-            if("".equals(shopJson)){
-                return null;
-            }
-            // 如果是空,证明访问的是非热点key,以带TTL的方式进行缓存,解决缓存穿透
-            R r = queryWithPassThrough(id , keyPrefix , type , callback , time , timeUnit);
-            // 2.1 不存在,直接返回
+        if(raw != null && raw.length == 0){
+            metrics.nullHit(keyPrefix);
+            return null;
+        }
+        RedisData redisData = raw == null ? null : decodeLogical(key , raw , type);
+        if (redisData == null) {
+            // 2.1 如果是空,证明访问的是非热点key,以带TTL的方式进行缓存,解决缓存穿透; 已经读过redis, 直接查询数据库
+            metrics.miss(keyPrefix);
+            return singleFlight(key , () -> loadAndCache(id , keyPrefix , callback , time , timeUnit));
+        }
+        // 3. 存在, 数据已经在解码时转换为目标类型
+        R r = type.cast(redisData.getData());
+        // 3.1 带TTL写入的普通数据(例如由queryWithPassThrough写入), 与普通缓存的命中相同处理
+        if (redisData.getExpireTime() == null) {
+            metrics.hit(keyPrefix);
+            localCache.put(key , r);
             return r;
         }
-        // 3. 存在,判断缓存是否过期
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        // 4. 未过期,直接返回
+        // 3.2 判断缓存是否过期
+        hotKeyTracker.recordAccess(keyPrefix , id , redisData.getExpireTime());
+        // 4. 未过期,放入本地缓存后直接返回
         if(redisData.getExpireTime().isAfter(LocalDateTime.now())){
+            // 4.1 重建时实体已被删除, 按空值命中处理, 本地缓存不能保存null
+            if (r == null) {
+                metrics.nullHit(keyPrefix);
+                return null;
+            }
+            metrics.hit(keyPrefix);
+            localCache.put(key , r);
             return r;
         }
+        // 逻辑过期的数据依然会返回, 同样计为命中
+        metrics.hit(keyPrefix);
         // 5. 过期,尝试获取互斥锁
         boolean flag = tryLock(lockPrefix + id);
         // 5.1 如果没有获取到锁,直接将旧数据返回
         if(!flag){
+            metrics.lockFailure(keyPrefix);
             return r;
         }
         // 6. 获取锁成功
         // 6.1 再次进行判断redis中的数据的逻辑过期是否已过期
-        shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        // 6.2 未过期,直接返回
-        if(redisData.getExpireTime().isAfter(LocalDateTime.now())){
-            return r;
+        raw = byteRedisTemplate.opsForValue().get(key);
+        redisData = raw == null || raw.length == 0 ? null : decodeLogical(key , raw , type);
+        // 6.2 已经被其他线程重建且未过期(或者已经改为带TTL的普通数据),释放锁后直接返回
+        if(redisData != null && (redisData.getExpireTime() == null
+                || redisData.getExpireTime().isAfter(LocalDateTime.now()))){
+            unlock(lockPrefix + id);
+            return type.cast(redisData.getData());
         }
         // 6.3 获取到锁之后,如果逻辑过期时间还是已经过期的,则开启独立线程
-        HOT_KEY_REBUILD.submit(()-> {
+        boolean submitted = rebuildExecutor.submit(key , ()-> {
             try {
-                // (ID id , String keyPrefix,Function<ID , R> callback , Long time , TimeUnit timeUnit){
                 this.saveShop2Redis(id , keyPrefix , callback , time , timeUnit);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }finally {
+            } finally {
                 unlock(lockPrefix + id);
             }
         });
+        if (submitted) {
+            metrics.rebuild(keyPrefix);
+        } else {
+            // 线程池已满或已经在重建, 释放锁, 由之后的请求再次尝试
+            unlock(lockPrefix + id);
+        }
         // 返回旧数据
         return r;
     }
 
+    // ------------------------------热点key提前刷新-------------------------------
+    // 逻辑过期时间早于deadline时重建缓存, 返回最新的逻辑过期时间; 没有抢到锁或者不是逻辑过期的key时返回null
+    public <R , ID> LocalDateTime refreshAhead(ID id , String keyPrefix , String lockPrefix , Class<R> type ,
+                                               Function<ID , R> callback , Long time , TimeUnit timeUnit ,
+                                               LocalDateTime deadline){
+        String key = keyPrefix + id;
+        String lockKey = lockPrefix + id;
+        if (!tryLock(lockKey)) {
+            metrics.lockFailure(keyPrefix);
+            return null;
+        }
+        try {
+            // 再次检查, 其他节点可能已经刷新过
+            byte[] raw = byteRedisTemplate.opsForValue().get(key);
+            RedisData redisData = raw == null || raw.length == 0 ? null : decodeLogical(key , raw , type);
+            if (redisData == null || redisData.getExpireTime() == null) {
+                return null;
+            }
+            if (redisData.getExpireTime().isAfter(deadline)) {
+                return redisData.getExpireTime();
+            }
+            metrics.refreshAhead(keyPrefix);
+            return saveShop2Redis(id , keyPrefix , callback , time , timeUnit);
+        } finally {
+            unlock(lockKey);
+        }
+    }
+
     // ------------------------------提前数据预热-------------------------------
-    // 将数据存入到redis中
-    public <R , ID> void saveShop2Redis(ID id , String keyPrefix,
+    // 将数据存入到redis中, 返回逻辑过期时间
+    public <R , ID> LocalDateTime saveShop2Redis(ID id , String keyPrefix,
                                         Function<ID , R> callback ,
                                         Long time , TimeUnit timeUnit){
         // 1. 查询店铺数据
-        R r = callback.apply(id);
+        R r = metrics.recordRebuild(keyPrefix , () -> callback.apply(id));
         // 2. 封装逻辑过期时间
         RedisData redisData = new RedisData();
         redisData.setData(r);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
-        // 3. 写入redis
-        stringRedisTemplate.opsForValue().set(keyPrefix + id , JSONUtil.toJsonStr(redisData));
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(ttlSeconds(keyPrefix + id , time , timeUnit)));
+        // 3. 写入redis, 并让各节点的本地缓存失效
+        byteRedisTemplate.opsForValue().set(keyPrefix + id , codec.encode(redisData));
+        publishInvalidate(keyPrefix + id);
+        return redisData.getExpireTime();
     }
 
 }
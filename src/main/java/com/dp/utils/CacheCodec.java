@@ -0,0 +1,30 @@
+package com.dp.utils;
+
+/**
+ * @Author zhou
+ * @Description // 缓存值的编解码接口, CacheClient通过它读写redis中的字节
+ * @Date 2023/9/4
+ */
+public interface CacheCodec {
+
+	/**
+	 * 编码缓存值
+	 */
+	byte[] encode(Object value);
+
+	/**
+	 * 解码为指定类型
+	 */
+	<R> R decode(byte[] bytes, Class<R> type);
+
+	/**
+	 * 解码逻辑过期的数据, 一次完成, 返回的RedisData中data已经是指定类型;
+	 * 同一个key也可能是带TTL写入的普通数据, 此时返回的RedisData中expireTime为null
+	 */
+	RedisData decodeLogical(byte[] bytes, Class<?> type);
+
+	/**
+	 * 解码为指定类型, 如果是逻辑过期的包装则直接取出其中的数据
+	 */
+	<R> R decodeUnwrapped(byte[] bytes, Class<R> type);
+}
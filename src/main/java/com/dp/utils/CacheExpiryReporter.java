@@ -0,0 +1,119 @@
+package com.dp.utils;
+
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @Author zhou
+ * @Description // 统计某个前缀下存活key的剩余过期时间分布, 用于确认过期时间是否被打散
+ * @Date 2023/9/6
+ */
+@Component
+public class CacheExpiryReporter {
+
+	// 每次pipeline查询的key数量
+	private static final int BATCH_SIZE = 500;
+
+	private final RedisTemplate<String, byte[]> byteRedisTemplate;
+	private final CacheCodec codec;
+
+	public CacheExpiryReporter(RedisTemplate<String, byte[]> byteRedisTemplate, CacheCodec codec) {
+		this.byteRedisTemplate = byteRedisTemplate;
+		this.codec = codec;
+	}
+
+	/**
+	 * 扫描前缀下的key, 按剩余过期秒数分桶计数; 带TTL的key取TTL, 逻辑过期的key取逻辑过期时间
+	 * @param bucketSeconds 每个桶覆盖的秒数
+	 * @param limit 最多扫描的key数量
+	 */
+	public Map<String, Object> histogram(String keyPrefix, long bucketSeconds, int limit) {
+		List<String> keys = scan(keyPrefix, limit);
+		Map<Long, Long> buckets = new TreeMap<>();
+		long persistent = 0;
+		long expired = 0;
+		LocalDateTime now = LocalDateTime.now();
+		for (int from = 0; from < keys.size(); from += BATCH_SIZE) {
+			List<String> batch = keys.subList(from, Math.min(from + BATCH_SIZE, keys.size()));
+			// 每个key依次返回 TTL 和 value
+			List<Object> results = byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				for (String key : batch) {
+					byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+					connection.ttl(rawKey);
+					connection.get(rawKey);
+				}
+				return null;
+			});
+			for (int i = 0; i < batch.size(); i++) {
+				Long ttl = (Long) results.get(i * 2);
+				byte[] raw = (byte[]) results.get(i * 2 + 1);
+				long remaining;
+				if (ttl != null && ttl >= 0) {
+					remaining = ttl;
+				} else {
+					LocalDateTime expireTime = logicalExpireTime(raw);
+					if (expireTime == null) {
+						persistent++;
+						continue;
+					}
+					remaining = Duration.between(now, expireTime).getSeconds();
+					if (remaining < 0) {
+						expired++;
+						continue;
+					}
+				}
+				buckets.merge(remaining / bucketSeconds, 1L, Long::sum);
+			}
+		}
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("prefix", keyPrefix);
+		report.put("scanned", keys.size());
+		report.put("bucketSeconds", bucketSeconds);
+		report.put("persistent", persistent);
+		report.put("logicallyExpired", expired);
+		Map<String, Long> histogram = new LinkedHashMap<>();
+		buckets.forEach((bucket, count) ->
+				histogram.put(bucket * bucketSeconds + "-" + (bucket + 1) * bucketSeconds, count));
+		report.put("buckets", histogram);
+		return report;
+	}
+
+	private List<String> scan(String keyPrefix, int limit) {
+		return byteRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+			List<String> keys = new ArrayList<>();
+			ScanOptions options = ScanOptions.scanOptions().match(keyPrefix + "*").count(1000).build();
+			try (Cursor<byte[]> cursor = connection.scan(options)) {
+				while (cursor.hasNext() && keys.size() < limit) {
+					keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			return keys;
+		});
+	}
+
+	// 不是逻辑过期的数据(空值、普通缓存)返回null
+	private LocalDateTime logicalExpireTime(byte[] raw) {
+		if (raw == null || raw.length == 0) {
+			return null;
+		}
+		try {
+			return codec.decodeLogical(raw, Object.class).getExpireTime();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.dp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * @Author zhou
+ * @Description // 按缓存key前缀统计的缓存指标, 通过actuator的 /actuator/metrics 查看
+ * @Date 2023/9/4
+ */
+@Component
+public class CacheMetrics {
+
+	private final MeterRegistry registry;
+	private final Map<String, PrefixMeters> meters = new ConcurrentHashMap<>();
+
+	public CacheMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public MeterRegistry registry() {
+		return registry;
+	}
+
+	// 本地缓存命中
+	public void localHit(String keyPrefix) {
+		of(keyPrefix).localHits.increment();
+	}
+
+	// redis命中
+	public void hit(String keyPrefix) {
+		of(keyPrefix).hits.increment();
+	}
+
+	// 命中缓存的空值
+	public void nullHit(String keyPrefix) {
+		of(keyPrefix).nullHits.increment();
+	}
+
+	// 被布隆过滤器拦截
+	public void bloomReject(String keyPrefix) {
+		of(keyPrefix).bloomRejects.increment();
+	}
+
+	// 缓存未命中, 需要查询数据库
+	public void miss(String keyPrefix) {
+		of(keyPrefix).misses.increment();
+	}
+
+	// 逻辑过期后提交了一次异步重建
+	public void rebuild(String keyPrefix) {
+		of(keyPrefix).rebuilds.increment();
+	}
+
+	// 热点key在逻辑过期前被提前刷新
+	public void refreshAhead(String keyPrefix) {
+		of(keyPrefix).refreshAheads.increment();
+	}
+
+	// 没有抢到重建缓存的互斥锁
+	public void lockFailure(String keyPrefix) {
+		of(keyPrefix).lockFailures.increment();
+	}
+
+	// 记录一次查询数据库并写入缓存的耗时
+	public <T> T recordRebuild(String keyPrefix, Supplier<T> rebuild) {
+		return of(keyPrefix).rebuildTimer.record(rebuild);
+	}
+
+	private PrefixMeters of(String keyPrefix) {
+		return meters.computeIfAbsent(keyPrefix, p -> new PrefixMeters(registry, p));
+	}
+
+	private static class PrefixMeters {
+		private final Counter localHits;
+		private final Counter hits;
+		private final Counter nullHits;
+		private final Counter bloomRejects;
+		private final Counter misses;
+		private final Counter rebuilds;
+		private final Counter refreshAheads;
+		private final Counter lockFailures;
+		private final Timer rebuildTimer;
+
+		PrefixMeters(MeterRegistry registry, String keyPrefix) {
+			this.localHits = request(registry, keyPrefix, "local_hit");
+			this.hits = request(registry, keyPrefix, "hit");
+			this.nullHits = request(registry, keyPrefix, "null_hit");
+			this.bloomRejects = request(registry, keyPrefix, "bloom_reject");
+			this.misses = request(registry, keyPrefix, "miss");
+			this.rebuilds = Counter.builder("dp.cache.rebuilds")
+					.description("逻辑过期触发的异步重建次数")
+					.tag("prefix", keyPrefix)
+					.register(registry);
+			this.refreshAheads = Counter.builder("dp.cache.refresh.ahead")
+					.description("热点key在逻辑过期前被提前刷新的次数")
+					.tag("prefix", keyPrefix)
+					.register(registry);
+			this.lockFailures = Counter.builder("dp.cache.lock.failures")
+					.description("获取重建互斥锁失败的次数")
+					.tag("prefix", keyPrefix)
+					.register(registry);
+			this.rebuildTimer = Timer.builder("dp.cache.rebuild.duration")
+					.description("查询数据库并写入缓存的耗时")
+					.tag("prefix", keyPrefix)
+					.publishPercentiles(0.5, 0.95, 0.99)
+					.publishPercentileHistogram()
+					.register(registry);
+		}
+
+		private static Counter request(MeterRegistry registry, String keyPrefix, String result) {
+			return Counter.builder("dp.cache.requests")
+					.description("缓存查询次数, 按结果分类")
+					.tag("prefix", keyPrefix)
+					.tag("result", result)
+					.register(registry);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.dp.utils;
+
+import com.dp.config.CacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author zhou
+ * @Description // 全局共享的缓存重建线程池: 有界队列, 同一个key同时只排队一个任务, 队列满时直接放弃重建
+ * @Date 2023/9/4
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+	private final ThreadPoolExecutor executor;
+	private final long shutdownSeconds;
+	// 已经提交但还没有执行完成的key
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();
+	private final Counter rejected;
+	private final Counter deduplicated;
+	private final Counter failed;
+
+	public CacheRebuildExecutor(CacheProperties cacheProperties, MeterRegistry registry) {
+		AtomicInteger threadIndex = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(cacheProperties.getRebuildThreads(), cacheProperties.getRebuildThreads(),
+				0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(cacheProperties.getRebuildQueueCapacity()),
+				r -> {
+					Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+		this.shutdownSeconds = cacheProperties.getRebuildShutdownSeconds();
+		// 队列长度、活跃线程数、完成任务数等由micrometer自带的binder统计
+		new ExecutorServiceMetrics(executor, "cache-rebuild", Tags.empty()).bindTo(registry);
+		this.rejected = Counter.builder("dp.cache.rebuild.rejected")
+				.description("线程池饱和被放弃的重建任务数")
+				.register(registry);
+		this.deduplicated = Counter.builder("dp.cache.rebuild.deduplicated")
+				.description("同一个key已经在排队而被合并的重建任务数")
+				.register(registry);
+		this.failed = Counter.builder("dp.cache.rebuild.failed")
+				.description("执行失败的重建任务数")
+				.register(registry);
+		Gauge.builder("dp.cache.rebuild.pending", pending, Set::size)
+				.description("等待或正在执行重建的key数量")
+				.register(registry);
+	}
+
+	/**
+	 * 提交key的重建任务
+	 * @return 是否提交成功; 同一个key已经在排队, 或者线程池已满时返回false, 调用方继续使用旧数据
+	 */
+	public boolean submit(String key, Runnable task) {
+		if (!pending.add(key)) {
+			deduplicated.increment();
+			return false;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					task.run();
+				} catch (Exception e) {
+					failed.increment();
+					log.error("缓存重建失败, key: {}", key, e);
+				} finally {
+					pending.remove(key);
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			pending.remove(key);
+			rejected.increment();
+			log.warn("缓存重建线程池已满, 放弃重建并返回旧数据, key: {}", key);
+			return false;
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(shutdownSeconds, TimeUnit.SECONDS)) {
+				log.warn("缓存重建任务在{}秒内没有完成, 强制关闭", shutdownSeconds);
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.dp.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @Author zhou
+ * @Description // 线程安全的count-min sketch, 用固定内存估算每个key的访问频率; 计数达到采样上限后整体减半, 让频率随时间衰减
+ * @Date 2023/9/5
+ */
+public class CountMinSketch {
+
+	private static final int DEPTH = 4;
+	private static final long[] SEEDS = {
+			0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+	};
+
+	private final AtomicIntegerArray counters;
+	private final int widthMask;
+	// 累计增加的次数达到该值时执行一次衰减
+	private final int sampleSize;
+	private final AtomicInteger additions = new AtomicInteger();
+
+	/**
+	 * @param width 每一行的计数器个数, 向上取整为2的幂
+	 */
+	public CountMinSketch(int width) {
+		int w = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+		this.counters = new AtomicIntegerArray(DEPTH * w);
+		this.widthMask = w - 1;
+		this.sampleSize = w * 10;
+	}
+
+	/**
+	 * 访问次数加一, 返回加一之后的估算频率
+	 */
+	public int increment(Object element) {
+		long hash = hash(element);
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < DEPTH; i++) {
+			int count = counters.incrementAndGet(index(hash, i));
+			min = Math.min(min, count);
+		}
+		if (additions.incrementAndGet() >= sampleSize) {
+			age();
+		}
+		return min;
+	}
+
+	/**
+	 * 估算频率, 只会偏大不会偏小
+	 */
+	public int estimate(Object element) {
+		long hash = hash(element);
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < DEPTH; i++) {
+			min = Math.min(min, counters.get(index(hash, i)));
+		}
+		return min;
+	}
+
+	// 所有计数减半, 旧的热点逐渐让位给新的热点
+	private void age() {
+		int current = additions.get();
+		if (current < sampleSize || !additions.compareAndSet(current, current >>> 1)) {
+			return;
+		}
+		for (int i = 0; i < counters.length(); i++) {
+			int old;
+			do {
+				old = counters.get(i);
+			} while (!counters.compareAndSet(i, old, old >>> 1));
+		}
+	}
+
+	private int index(long hash, int row) {
+		long h = (hash ^ SEEDS[row]) * SEEDS[row];
+		h ^= h >>> 32;
+		return row * (widthMask + 1) + ((int) h & widthMask);
+	}
+
+	private static long hash(Object element) {
+		long h = String.valueOf(element).hashCode() * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+}
@@ -0,0 +1,153 @@
+package com.dp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.dp.config.FeedProperties;
+import com.dp.entity.Follow;
+import com.dp.mapper.FollowMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.dp.contants.RedisConstants.FEED_CELEBRITY_KEY;
+import static com.dp.contants.RedisConstants.FEED_KEY;
+import static com.dp.contants.RedisConstants.FEED_OUTBOX_KEY;
+
+/**
+ * @Author zhou
+ * @Description // 写扩散: 发布博文后在后台线程中分批查询粉丝, 以pipeline把博文id写入每个粉丝的收件箱 feed:{userId};
+ *                 粉丝数超过阈值的大V只写自己的发件箱 feed:outbox:{userId}, 由 FeedTimeline 在读取时拉取
+ * @Date 2023/9/10
+ */
+@Slf4j
+@Component
+public class FeedFanout {
+
+	private final StringRedisTemplate stringRedisTemplate;
+	private final FollowMapper followMapper;
+	private final FollowGraph followGraph;
+	private final FeedProperties feedProperties;
+	private final ThreadPoolExecutor executor;
+
+	public FeedFanout(StringRedisTemplate stringRedisTemplate, FollowMapper followMapper, FollowGraph followGraph,
+	                  FeedProperties feedProperties, MeterRegistry registry) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.followMapper = followMapper;
+		this.followGraph = followGraph;
+		this.feedProperties = feedProperties;
+		AtomicInteger threadIndex = new AtomicInteger();
+		// 队列满时由调用线程推送, 宁可让发布变慢也不丢失推送
+		this.executor = new ThreadPoolExecutor(feedProperties.getFanoutThreads(), feedProperties.getFanoutThreads(),
+				0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(feedProperties.getFanoutQueueCapacity()),
+				r -> {
+					Thread thread = new Thread(r, "feed-fanout-" + threadIndex.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		new ExecutorServiceMetrics(executor, "feed-fanout", Tags.empty()).bindTo(registry);
+	}
+
+	/**
+	 * 异步把博文推送给作者的所有粉丝
+	 * @param timestamp 发布时间戳(毫秒), 作为收件箱中的分数
+	 */
+	public void publish(Long authorId, Long blogId, long timestamp) {
+		executor.execute(() -> {
+			try {
+				// 1. 先写入作者的发件箱, 大V的粉丝从这里拉取
+				appendOutbox(authorId, blogId, timestamp);
+				// 2. 大V不写扩散, 一次发布的写入量与粉丝数无关
+				long followers = followerCount(authorId);
+				if (followers >= feedProperties.getCelebrityFollowerThreshold()) {
+					// 粉丝数回落后也保持大V身份, 否则已经只在发件箱中的博文会从粉丝的关注列表中消失
+					stringRedisTemplate.opsForSet().add(FEED_CELEBRITY_KEY, authorId.toString());
+					log.debug("大V博文只写入发件箱, blogId: {}, 粉丝数: {}", blogId, followers);
+					return;
+				}
+				// 3. 普通用户推送给所有粉丝
+				long count = fanout(authorId, blogId, timestamp);
+				log.debug("博文推送完成, blogId: {}, 粉丝数: {}", blogId, count);
+			} catch (Exception e) {
+				log.error("博文推送失败, authorId: {}, blogId: {}", authorId, blogId, e);
+			}
+		});
+	}
+
+	// 关注关系已在redis中时 SCARD, 否则查询数据库
+	private long followerCount(Long authorId) {
+		if (followGraph.isBuilt()) {
+			return followGraph.followerCount(authorId);
+		}
+		Integer count = followMapper.selectCount(new QueryWrapper<Follow>().eq("follow_user_id", authorId));
+		return count == null ? 0 : count;
+	}
+
+	private void appendOutbox(Long authorId, Long blogId, long timestamp) {
+		String key = FEED_OUTBOX_KEY + authorId;
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			stringConnection.zAdd(key, timestamp, blogId.toString());
+			stringConnection.zRemRange(key, 0, -(feedProperties.getInboxMaxSize() + 1L));
+			return null;
+		});
+	}
+
+	// 按id分批查询粉丝, 每批一次pipeline: ZADD写入, 再裁剪收件箱的长度
+	private long fanout(Long authorId, Long blogId, long timestamp) {
+		String member = blogId.toString();
+		int batchSize = feedProperties.getFanoutBatchSize();
+		// 保留分数最高的 inboxMaxSize 个, 删除排名 0 ~ -(inboxMaxSize+1) 的部分
+		long trimEnd = -(feedProperties.getInboxMaxSize() + 1L);
+		long count = 0;
+		long lastId = 0;
+		while (true) {
+			List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+					.select("id", "user_id").eq("follow_user_id", authorId).gt("id", lastId)
+					.orderByAsc("id").last("limit " + batchSize));
+			if (follows.isEmpty()) {
+				break;
+			}
+			stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				StringRedisConnection stringConnection = (StringRedisConnection) connection;
+				for (Follow follow : follows) {
+					String key = FEED_KEY + follow.getUserId();
+					stringConnection.zAdd(key, timestamp, member);
+					stringConnection.zRemRange(key, 0, trimEnd);
+				}
+				return null;
+			});
+			count += follows.size();
+			lastId = follows.get(follows.size() - 1).getId();
+			if (follows.size() < batchSize) {
+				break;
+			}
+		}
+		return count;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+				log.warn("博文推送任务在10秒内没有完成, 强制关闭");
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
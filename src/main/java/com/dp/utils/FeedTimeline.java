@@ -0,0 +1,202 @@
+package com.dp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.dp.config.FeedProperties;
+import com.dp.entity.Follow;
+import com.dp.mapper.FollowMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.dp.contants.RedisConstants.FEED_CELEBRITY_KEY;
+import static com.dp.contants.RedisConstants.FEED_KEY;
+import static com.dp.contants.RedisConstants.FEED_OUTBOX_KEY;
+
+/**
+ * @Author zhou
+ * @Description // 推拉结合的关注博文读取: 合并自己的收件箱和关注的大V的发件箱, 按时间戳多路归并后滚动分页,
+ *                 合并结果在本地短暂缓存
+ * @Date 2023/9/10
+ */
+@Component
+public class FeedTimeline {
+
+	private final StringRedisTemplate stringRedisTemplate;
+	private final FollowMapper followMapper;
+	private final FollowGraph followGraph;
+	// userId:max:offset -> 合并后的一页
+	private final Cache<String, FeedPage> pageCache;
+
+	public FeedTimeline(StringRedisTemplate stringRedisTemplate, FollowMapper followMapper, FollowGraph followGraph,
+	                    FeedProperties feedProperties, MeterRegistry registry) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.followMapper = followMapper;
+		this.followGraph = followGraph;
+		this.pageCache = Caffeine.newBuilder()
+				.maximumSize(feedProperties.getPageCacheMaximumSize())
+				.expireAfterWrite(feedProperties.getPageCacheSeconds(), TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		CaffeineCacheMetrics.monitor(registry, pageCache, "feed-page");
+	}
+
+	/**
+	 * 滚动分页查询关注的人发布的博文id, 时间戳由新到旧
+	 * @param max 上一页的最小时间戳, 第一页传null
+	 * @param offset 上一页中与最小时间戳相同的博文数量, 第一页为0
+	 */
+	public FeedPage page(Long userId, Long max, int offset, int size) {
+		// 第一页的max不固定, 用空串作为缓存key
+		String key = userId + ":" + (max == null ? "" : max) + ":" + offset;
+		return pageCache.get(key, k -> load(userId, max == null ? Long.MAX_VALUE : max, offset, size));
+	}
+
+	private FeedPage load(Long userId, long max, int offset, int size) {
+		// 1. 收件箱, 以及关注的大V的发件箱
+		List<String> keys = new ArrayList<>();
+		keys.add(FEED_KEY + userId);
+		for (Long celebrityId : followedCelebrities(userId)) {
+			keys.add(FEED_OUTBOX_KEY + celebrityId);
+		}
+		// 2. 一次pipeline从每个来源取 max 以下的前 offset + size 个, 合并后最多跳过offset个
+		List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			RedisZSetCommands.Range range = RedisZSetCommands.Range.range().gte(0).lte(max);
+			RedisZSetCommands.Limit limit = RedisZSetCommands.Limit.limit().offset(0).count(offset + size);
+			for (String key : keys) {
+				connection.zRevRangeByScoreWithScores(key.getBytes(StandardCharsets.UTF_8), range, limit);
+			}
+			return null;
+		});
+		// 3. 多路归并: 堆中保存每个来源当前的第一个元素
+		PriorityQueue<Cursor> heap = new PriorityQueue<>();
+		for (Object result : results) {
+			@SuppressWarnings("unchecked")
+			Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) result;
+			if (tuples != null && !tuples.isEmpty()) {
+				Cursor cursor = new Cursor(new ArrayList<>(tuples));
+				heap.offer(cursor);
+			}
+		}
+		List<Long> ids = new ArrayList<>(size);
+		// 同一篇博文可能同时在收件箱和发件箱中
+		Set<Long> seen = new HashSet<>();
+		long minTime = 0;
+		int os = 0;
+		int skipped = 0;
+		while (!heap.isEmpty() && ids.size() < size) {
+			Cursor cursor = heap.poll();
+			long blogId = cursor.blogId();
+			long time = cursor.time();
+			if (cursor.advance()) {
+				heap.offer(cursor);
+			}
+			if (!seen.add(blogId)) {
+				continue;
+			}
+			// 上一页已经返回过的、时间戳等于max的博文
+			if (time == max && skipped < offset) {
+				skipped++;
+				continue;
+			}
+			ids.add(blogId);
+			if (time == minTime) {
+				os++;
+			} else {
+				minTime = time;
+				os = 1;
+			}
+		}
+		if (ids.isEmpty()) {
+			return new FeedPage(Collections.emptyList(), max, offset);
+		}
+		// 整页的时间戳都等于上一页的最小值时, 需要加上上一页的偏移量
+		if (minTime == max) {
+			os += offset;
+		}
+		return new FeedPage(ids, minTime, os);
+	}
+
+	// 当前用户关注的大V: 关注关系已在redis中时 SINTER, 否则大V集合很小, 直接作为IN条件查询数据库
+	private List<Long> followedCelebrities(Long userId) {
+		if (followGraph.isBuilt()) {
+			return followGraph.followsIn(userId, FEED_CELEBRITY_KEY);
+		}
+		Set<String> celebrities = stringRedisTemplate.opsForSet().members(FEED_CELEBRITY_KEY);
+		if (celebrities == null || celebrities.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Long> followed = new ArrayList<>();
+		for (Follow follow : followMapper.selectList(new QueryWrapper<Follow>()
+				.select("follow_user_id").eq("user_id", userId).in("follow_user_id", celebrities))) {
+			followed.add(follow.getFollowUserId());
+		}
+		return followed;
+	}
+
+	public static class FeedPage {
+		private final List<Long> ids;
+		private final long minTime;
+		private final int offset;
+
+		FeedPage(List<Long> ids, long minTime, int offset) {
+			this.ids = ids;
+			this.minTime = minTime;
+			this.offset = offset;
+		}
+
+		public List<Long> getIds() {
+			return ids;
+		}
+
+		public long getMinTime() {
+			return minTime;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+	}
+
+	// 一个来源中按时间戳由新到旧排列的博文, 时间戳相同时按id由大到小, 保证每次归并的顺序一致
+	private static class Cursor implements Comparable<Cursor> {
+		private final List<ZSetOperations.TypedTuple<String>> tuples;
+		private int index;
+
+		Cursor(List<ZSetOperations.TypedTuple<String>> tuples) {
+			this.tuples = tuples;
+		}
+
+		long blogId() {
+			return Long.parseLong(tuples.get(index).getValue());
+		}
+
+		long time() {
+			return tuples.get(index).getScore().longValue();
+		}
+
+		boolean advance() {
+			return ++index < tuples.size();
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			int byTime = Long.compare(other.time(), time());
+			return byTime != 0 ? byTime : Long.compare(other.blogId(), blogId());
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.dp.utils;
+
+import com.dp.entity.Follow;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.dp.contants.RedisConstants.*;
+
+/**
+ * @Author zhou
+ * @Description // 关注关系在redis中的镜像: follows:{userId} 关注的人, followers:{userId} 粉丝;
+ *                 全量构建完成之前 isBuilt() 为false, 调用方应改为查询数据库;
+ *                 全量构建期间取关的关系记录在 follow:graph:unfollowed 中, 构建时跳过, 避免快照中的旧关系被重新写入
+ * @Date 2023/9/11
+ */
+@Slf4j
+@Component
+public class FollowGraph {
+
+	// KEYS[1] follows:{userId} KEYS[2] followers:{followUserId} KEYS[3] 构建期间取关的关系  ARGV[1] userId ARGV[2] followUserId
+	private static final DefaultRedisScript<Long> FOLLOW_SCRIPT = new DefaultRedisScript<>(
+			"redis.call('sadd', KEYS[1], ARGV[2]) redis.call('sadd', KEYS[2], ARGV[1]) " +
+			"redis.call('srem', KEYS[3], ARGV[1] .. ':' .. ARGV[2]) return 1",
+			Long.class);
+	// KEYS[4] 正在全量构建的标记, 存在时记录取关, 构建时跳过
+	private static final DefaultRedisScript<Long> UNFOLLOW_SCRIPT = new DefaultRedisScript<>(
+			"redis.call('srem', KEYS[1], ARGV[2]) redis.call('srem', KEYS[2], ARGV[1]) " +
+			"if redis.call('exists', KEYS[4]) == 1 then redis.call('sadd', KEYS[3], ARGV[1] .. ':' .. ARGV[2]) end return 1",
+			Long.class);
+	// 全量构建写入一批: KEYS[1] 构建期间取关的关系, 之后每两个key对应ARGV中的一对 userId, followUserId
+	private static final DefaultRedisScript<Long> ADD_ALL_SCRIPT = new DefaultRedisScript<>(
+			"local n = 0 " +
+			"for i = 1, #ARGV, 2 do " +
+			"if redis.call('sismember', KEYS[1], ARGV[i] .. ':' .. ARGV[i + 1]) == 0 then " +
+			"redis.call('sadd', KEYS[i + 1], ARGV[i + 1]) redis.call('sadd', KEYS[i + 2], ARGV[i]) n = n + 1 end " +
+			"end return n",
+			Long.class);
+
+	private final StringRedisTemplate stringRedisTemplate;
+	private volatile boolean built;
+
+	public FollowGraph(StringRedisTemplate stringRedisTemplate) {
+		this.stringRedisTemplate = stringRedisTemplate;
+	}
+
+	public boolean isBuilt() {
+		return built;
+	}
+
+	/**
+	 * 标记全量构建完成, 其他节点启动时看到标记后不再重复构建
+	 */
+	public void markBuilt() {
+		stringRedisTemplate.opsForValue().set(FOLLOW_GRAPH_BUILT_KEY, String.valueOf(System.currentTimeMillis()));
+		this.built = true;
+	}
+
+	/**
+	 * redis中已经有构建完成的标记时直接启用
+	 */
+	public boolean loadBuilt() {
+		this.built = Boolean.TRUE.equals(stringRedisTemplate.hasKey(FOLLOW_GRAPH_BUILT_KEY));
+		return built;
+	}
+
+	/**
+	 * 定期检查标记: 其他节点完成构建后切换到redis; 标记消失(redis数据丢失或被清空)或无法确认时改为查询数据库
+	 */
+	@Scheduled(fixedDelayString = "${dp.follow.built-check-interval-millis:10000}")
+	public void refreshBuilt() {
+		boolean before = built;
+		try {
+			loadBuilt();
+		} catch (Exception e) {
+			built = false;
+			log.warn("检查关注关系构建标记失败", e);
+		}
+		if (before != built) {
+			log.info(built ? "关注关系已在redis中构建完成, 切换到redis" : "关注关系构建标记已不存在, 改为查询数据库");
+		}
+	}
+
+	public void follow(Long userId, Long followUserId) {
+		stringRedisTemplate.execute(FOLLOW_SCRIPT,
+				Arrays.asList(FOLLOWS_KEY + userId, FOLLOWERS_KEY + followUserId, FOLLOW_GRAPH_UNFOLLOWED_KEY),
+				userId.toString(), followUserId.toString());
+	}
+
+	public void unfollow(Long userId, Long followUserId) {
+		stringRedisTemplate.execute(UNFOLLOW_SCRIPT,
+				Arrays.asList(FOLLOWS_KEY + userId, FOLLOWERS_KEY + followUserId, FOLLOW_GRAPH_UNFOLLOWED_KEY,
+						FOLLOW_GRAPH_REBUILDING_KEY),
+				userId.toString(), followUserId.toString());
+	}
+
+	/**
+	 * 开始全量构建: 之后的取关都会被记录, 必须在读取数据库快照之前调用
+	 */
+	public void beginRebuild() {
+		stringRedisTemplate.delete(FOLLOW_GRAPH_UNFOLLOWED_KEY);
+		stringRedisTemplate.opsForValue().set(FOLLOW_GRAPH_REBUILDING_KEY, String.valueOf(System.currentTimeMillis()),
+				FOLLOW_GRAPH_REBUILDING_TTL, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * 结束全量构建, 清除构建标记和取关记录
+	 */
+	public void endRebuild() {
+		stringRedisTemplate.delete(Arrays.asList(FOLLOW_GRAPH_REBUILDING_KEY, FOLLOW_GRAPH_UNFOLLOWED_KEY));
+	}
+
+	/**
+	 * 一次脚本写入一批关注关系, 用于全量构建; 构建期间已经取关的关系跳过, 并延长构建标记的有效期
+	 */
+	public void addAll(Collection<Follow> follows) {
+		if (follows.isEmpty()) {
+			return;
+		}
+		List<String> keys = new ArrayList<>(follows.size() * 2 + 1);
+		List<String> args = new ArrayList<>(follows.size() * 2);
+		keys.add(FOLLOW_GRAPH_UNFOLLOWED_KEY);
+		for (Follow follow : follows) {
+			keys.add(FOLLOWS_KEY + follow.getUserId());
+			keys.add(FOLLOWERS_KEY + follow.getFollowUserId());
+			args.add(follow.getUserId().toString());
+			args.add(follow.getFollowUserId().toString());
+		}
+		stringRedisTemplate.execute(ADD_ALL_SCRIPT, keys, args.toArray());
+		stringRedisTemplate.expire(FOLLOW_GRAPH_REBUILDING_KEY, FOLLOW_GRAPH_REBUILDING_TTL, TimeUnit.MINUTES);
+	}
+
+	public boolean isFollowing(Long userId, Long followUserId) {
+		return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY + userId, followUserId.toString()));
+	}
+
+	/**
+	 * 两个用户共同关注的人 SINTER follows:{userId} follows:{otherId}
+	 */
+	public List<Long> commonFollows(Long userId, Long otherId) {
+		return toIds(stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FOLLOWS_KEY + otherId));
+	}
+
+	/**
+	 * 用户关注的人中属于某个集合的部分, 例如关注的大V
+	 */
+	public List<Long> followsIn(Long userId, String setKey) {
+		return toIds(stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, setKey));
+	}
+
+	public long followCount(Long userId) {
+		Long size = stringRedisTemplate.opsForSet().size(FOLLOWS_KEY + userId);
+		return size == null ? 0 : size;
+	}
+
+	public long followerCount(Long userId) {
+		Long size = stringRedisTemplate.opsForSet().size(FOLLOWERS_KEY + userId);
+		return size == null ? 0 : size;
+	}
+
+	private static List<Long> toIds(Set<String> members) {
+		if (members == null || members.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Long> ids = new ArrayList<>(members.size());
+		for (String member : members) {
+			ids.add(Long.valueOf(member));
+		}
+		return ids;
+	}
+}
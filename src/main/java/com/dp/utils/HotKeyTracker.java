@@ -0,0 +1,118 @@
+package com.dp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Author zhou
+ * @Description // 按key前缀统计访问频率, 找出最热的K个key以及它们的逻辑过期时间, 供提前刷新使用
+ * @Date 2023/9/5
+ */
+@Component
+public class HotKeyTracker {
+
+	private final Map<String, PrefixTracker> trackers = new ConcurrentHashMap<>();
+
+	/**
+	 * 开始统计某个前缀的访问频率, 没有注册的前缀不做任何统计
+	 */
+	public void track(String keyPrefix, int topK) {
+		trackers.computeIfAbsent(keyPrefix, p -> new PrefixTracker(topK));
+	}
+
+	/**
+	 * 记录一次访问
+	 * @param expireTime 本次读到的逻辑过期时间, 未知(例如本地缓存命中)时传null
+	 */
+	public void recordAccess(String keyPrefix, Object id, LocalDateTime expireTime) {
+		PrefixTracker tracker = trackers.get(keyPrefix);
+		if (tracker != null) {
+			tracker.record(String.valueOf(id), expireTime);
+		}
+	}
+
+	/**
+	 * 当前访问频率最高的K个key, 按频率从高到低排列
+	 */
+	public List<HotKey> hotKeys(String keyPrefix) {
+		PrefixTracker tracker = trackers.get(keyPrefix);
+		return tracker == null ? Collections.emptyList() : tracker.topK();
+	}
+
+	public static class HotKey {
+		private final String id;
+		private volatile LocalDateTime expireTime;
+		private volatile int frequency;
+
+		HotKey(String id) {
+			this.id = id;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public LocalDateTime getExpireTime() {
+			return expireTime;
+		}
+
+		public void setExpireTime(LocalDateTime expireTime) {
+			this.expireTime = expireTime;
+		}
+
+		public int getFrequency() {
+			return frequency;
+		}
+	}
+
+	private static class PrefixTracker {
+		private final int topK;
+		// 候选集合的上限, 只有频率超过门槛的key才能进入
+		private final int capacity;
+		private final CountMinSketch sketch;
+		private final Map<String, HotKey> candidates = new ConcurrentHashMap<>();
+		// 候选集合满时, 新key需要超过的频率
+		private volatile int admitThreshold;
+
+		PrefixTracker(int topK) {
+			this.topK = topK;
+			this.capacity = topK * 4;
+			this.sketch = new CountMinSketch(topK * 64);
+		}
+
+		void record(String id, LocalDateTime expireTime) {
+			int frequency = sketch.increment(id);
+			HotKey hotKey = candidates.get(id);
+			if (hotKey == null) {
+				if (candidates.size() >= capacity && frequency <= admitThreshold) {
+					return;
+				}
+				hotKey = candidates.computeIfAbsent(id, HotKey::new);
+			}
+			if (expireTime != null) {
+				hotKey.setExpireTime(expireTime);
+			}
+		}
+
+		// 重新估算候选key的频率, 淘汰多余的候选并返回前K个
+		synchronized List<HotKey> topK() {
+			List<HotKey> all = new ArrayList<>(candidates.values());
+			for (HotKey hotKey : all) {
+				hotKey.frequency = sketch.estimate(hotKey.id);
+			}
+			all.sort(Comparator.comparingInt(HotKey::getFrequency).reversed());
+			for (int i = capacity; i < all.size(); i++) {
+				candidates.remove(all.get(i).id);
+			}
+			admitThreshold = all.size() >= capacity ? all.get(capacity - 1).frequency : 0;
+			return new ArrayList<>(all.subList(0, Math.min(topK, all.size())));
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.dp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @Author zhou
+ * @Description // JSON编解码, 与之前以字符串保存的缓存格式兼容
+ * @Date 2023/9/4
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+	@Override
+	public byte[] encode(Object value) {
+		return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public <R> R decode(byte[] bytes, Class<R> type) {
+		return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+	}
+
+	@Override
+	public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+		// 只解析一次字符串, 再分别转换过期时间和数据
+		JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+		if (!isLogical(json)) {
+			RedisData plain = new RedisData();
+			plain.setData(json.toBean(type));
+			return plain;
+		}
+		RedisData redisData = json.toBean(RedisData.class);
+		JSONObject data = json.getJSONObject("data");
+		redisData.setData(data == null ? null : data.toBean(type));
+		return redisData;
+	}
+
+	@Override
+	public <R> R decodeUnwrapped(byte[] bytes, Class<R> type) {
+		JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+		if (isLogical(json)) {
+			JSONObject data = json.getJSONObject("data");
+			return data == null ? null : data.toBean(type);
+		}
+		return json.toBean(type);
+	}
+
+	// 逻辑过期的包装一定带有expireTime字段; 实体已被删除时data为null, 不会写出data字段
+	private static boolean isLogical(JSONObject json) {
+		return json.containsKey("expireTime");
+	}
+}
@@ -0,0 +1,83 @@
+package com.dp.utils;
+
+import com.dp.dto.UserDTO;
+import com.dp.dto.VoucherListDTO;
+import com.dp.entity.Shop;
+import com.dp.entity.ShopType;
+import com.dp.entity.User;
+import com.dp.entity.Voucher;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/**
+ * @Author zhou
+ * @Description // 基于Kryo的二进制编解码, 体积更小, 逻辑过期数据一次反序列化即可得到目标对象
+ * @Date 2023/9/4
+ */
+public class KryoCacheCodec implements CacheCodec {
+
+	// Kryo不是线程安全的, 每个线程持有一个实例
+	private static final ThreadLocal<Kryo> KRYO = ThreadLocal.withInitial(() -> {
+		Kryo kryo = new Kryo();
+		kryo.setRegistrationRequired(false);
+		kryo.setReferences(false);
+		// 常用类型注册为数字id, 序列化结果中不再写入完整类名
+		// 注册顺序决定id, 各节点必须一致, 新类型只能追加在末尾
+		kryo.register(RedisData.class);
+		kryo.register(LocalDateTime.class);
+		kryo.register(ArrayList.class);
+		kryo.register(Shop.class);
+		kryo.register(ShopType.class);
+		kryo.register(Voucher.class);
+		kryo.register(User.class);
+		kryo.register(UserDTO.class);
+		kryo.register(VoucherListDTO.class);
+		return kryo;
+	});
+
+	@Override
+	public byte[] encode(Object value) {
+		Output output = new Output(256, -1);
+		KRYO.get().writeClassAndObject(output, value);
+		return output.toBytes();
+	}
+
+	@Override
+	public <R> R decode(byte[] bytes, Class<R> type) {
+		try (Input input = new Input(bytes)) {
+			return type.cast(KRYO.get().readClassAndObject(input));
+		}
+	}
+
+	@Override
+	public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+		// 序列化结果中带有类型, 一次反序列化即可区分逻辑过期的包装和普通数据
+		Object value = decode(bytes, Object.class);
+		RedisData redisData;
+		if (value instanceof RedisData) {
+			redisData = (RedisData) value;
+		} else {
+			redisData = new RedisData();
+			redisData.setData(value);
+		}
+		if (redisData.getData() != null && !type.isInstance(redisData.getData())) {
+			throw new ClassCastException("缓存数据类型不匹配: " + redisData.getData().getClass().getName());
+		}
+		return redisData;
+	}
+
+	@Override
+	public <R> R decodeUnwrapped(byte[] bytes, Class<R> type) {
+		try (Input input = new Input(bytes)) {
+			Object value = KRYO.get().readClassAndObject(input);
+			if (value instanceof RedisData) {
+				value = ((RedisData) value).getData();
+			}
+			return type.cast(value);
+		}
+	}
+}
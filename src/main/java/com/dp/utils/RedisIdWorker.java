@@ -1,25 +1,59 @@
 package com.dp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.dp.contants.RedisConstants.ID_WORKER_KEY;
+import static com.dp.contants.RedisConstants.ID_WORKER_TTL;
 
 /**
  * @Author zhou
  * @Description // redis的生成唯一id
  * @Date 2023/9/1
  */
+@Slf4j
 @Component
 public class RedisIdWorker {
 
+	/**
+	 * id的生成策略
+	 * INCR: 每个id执行一次 INCR
+	 * SEGMENT: 每次 INCRBY 领取一段序列号, 在本地分配, 并在余量不足时异步预取下一段
+	 * SNOWFLAKE: 时间戳 + 机器id + 序列号, 完全在本地生成, 机器id从redis租约获得
+	 */
+	public enum Strategy {
+		INCR, SEGMENT, SNOWFLAKE
+	}
 
-	private StringRedisTemplate stringRedisTemplate;
+	private final StringRedisTemplate stringRedisTemplate;
+	private final Strategy strategy;
+	private final int segmentSize;
 
-	public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+	public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+	                     @Value("${dp.id.strategy:INCR}") Strategy strategy,
+	                     @Value("${dp.id.segment-size:1000}") int segmentSize) {
 		this.stringRedisTemplate = stringRedisTemplate;
+		this.strategy = strategy;
+		this.segmentSize = segmentSize;
 	}
 
 	private static final long BEGIN_TIMESTAMP = 1640995200L;
@@ -27,19 +61,325 @@ public class RedisIdWorker {
 	 * 序列号的位数
 	 */
 	private static final int COUNT_BITS = 32;
+	/**
+	 * INCR/SEGMENT模式每天的序列号上限, 低32位的最高位留给雪花模式, 两种id不会重复
+	 */
+	private static final long MAX_COUNT = (1L << (COUNT_BITS - 1)) - 1;
+	private static final long SECONDS_PER_DAY = 86400L;
+	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+	/**
+	 * 雪花模式下, 低32位拆分为 1位标记 + 10位机器id + 21位序列号, 高32位的时间戳与其他模式保持一致
+	 */
+	private static final long SNOWFLAKE_FLAG = 1L << (COUNT_BITS - 1);
+	private static final int WORKER_ID_BITS = 10;
+	private static final int SEQUENCE_BITS = COUNT_BITS - 1 - WORKER_ID_BITS;
+	private static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+	/**
+	 * 允许容忍的时钟回拨秒数, 在此范围内沿用上一次的时间戳, 超过则拒绝生成
+	 */
+	private static final long MAX_BACKWARD_SECONDS = 5L;
+	// 续约机器id: 只有租约仍属于本实例时才延长过期时间
+	private static final DefaultRedisScript<Long> RENEW_WORKER_SCRIPT = new DefaultRedisScript<>(
+			"if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('expire', KEYS[1], ARGV[2]) end return 0",
+			Long.class);
+	// 释放机器id: 只删除属于本实例的租约
+	private static final DefaultRedisScript<Long> RELEASE_WORKER_SCRIPT = new DefaultRedisScript<>(
+			"if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0",
+			Long.class);
+
+	// 缓存当天的日期字符串, 跨天时才重新格式化
+	private volatile DayKey dayKey = new DayKey(-1, null);
+	// 每个业务前缀对应的号段
+	private final ConcurrentHashMap<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+	// 异步预取号段的线程
+	private final ExecutorService segmentLoader = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "id-segment-loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	public long nextId(String keyPrefix){
+		return nextId(keyPrefix, strategy);
+	}
+
+	/**
+	 * 不需要每次访问redis的id, 用在对往返次数敏感的热点路径上:
+	 * 配置为INCR时改用号段模式, 两者共用同一个计数key, 生成的id不会重复
+	 */
+	public long nextLocalId(String keyPrefix){
+		return nextId(keyPrefix, strategy == Strategy.INCR ? Strategy.SEGMENT : strategy);
+	}
+
+	public long nextId(String keyPrefix, Strategy strategy){
+		if (strategy == Strategy.SNOWFLAKE) {
+			return nextSnowflakeId();
+		}
 		// 1. 生成时间戳 从开始时间减去当前时间得到的时间
-		// 获取当前的时间
-		LocalDateTime now = LocalDateTime.now();
 		// 将获取到的当前时间.转为秒数
-		long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+		long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
 		long timestamp = nowSecond - BEGIN_TIMESTAMP;
 		// 2. 生成序列号
 		// 2.1 获取当前的日期  一方面可以减小全局id不够用的情况  另一方面还有利于查询
-		String date =  now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+		DayKey day = currentDay(nowSecond);
 		// 2.2 自增长
-		long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+		long count = strategy == Strategy.SEGMENT
+				? nextSegmentCount(keyPrefix, day)
+				: stringRedisTemplate.opsForValue().increment(incrKey(keyPrefix, day));
+		if (count > MAX_COUNT) {
+			throw new IllegalStateException("当天的序列号已经用完, keyPrefix: " + keyPrefix);
+		}
 		// 3. 拼接并返回
 		return timestamp << COUNT_BITS | count;
 	}
+
+	private DayKey currentDay(long nowSecond){
+		long epochDay = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+		DayKey day = dayKey;
+		if (day.epochDay != epochDay) {
+			day = new DayKey(epochDay, LocalDate.ofEpochDay(epochDay).format(DATE_FORMATTER));
+			dayKey = day;
+		}
+		return day;
+	}
+
+	private static String incrKey(String keyPrefix, DayKey day){
+		return "icr:" + keyPrefix + ":" + day.date;
+	}
+
+	// ------------------------------号段模式-------------------------------
+	private long nextSegmentCount(String keyPrefix, DayKey day){
+		SegmentBuffer buffer = segmentBuffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+		while (true) {
+			Segment segment = buffer.current;
+			// 1. 当前号段属于今天, 无锁分配
+			if (segment != null && segment.epochDay == day.epochDay) {
+				long count = segment.cursor.getAndIncrement();
+				if (count <= segment.max) {
+					// 1.1 余量低于号段的20%时, 异步预取下一段
+					if (segment.max - count < segmentSize / 5) {
+						prefetch(buffer, keyPrefix, day);
+					}
+					return count;
+				}
+			}
+			// 2. 号段用完或已跨天, 切换号段
+			switchSegment(buffer, segment, keyPrefix, day);
+		}
+	}
+
+	private void switchSegment(SegmentBuffer buffer, Segment used, String keyPrefix, DayKey day){
+		synchronized (buffer) {
+			// 其他线程已经切换过了
+			if (buffer.current != used) {
+				return;
+			}
+			Segment next = buffer.next;
+			buffer.next = null;
+			// 预取的号段不可用时同步领取
+			if (next == null || next.epochDay != day.epochDay) {
+				next = loadSegment(keyPrefix, day);
+			}
+			buffer.current = next;
+		}
+	}
+
+	private void prefetch(SegmentBuffer buffer, String keyPrefix, DayKey day){
+		if (buffer.next != null || !buffer.loading.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			segmentLoader.execute(() -> {
+				try {
+					Segment segment = loadSegment(keyPrefix, day);
+					synchronized (buffer) {
+						if (buffer.next == null) {
+							buffer.next = segment;
+						}
+					}
+				} catch (Exception e) {
+					log.error("预取id号段失败, keyPrefix: {}", keyPrefix, e);
+				} finally {
+					buffer.loading.set(false);
+				}
+			});
+		} catch (RuntimeException e) {
+			buffer.loading.set(false);
+			throw e;
+		}
+	}
+
+	// INCRBY 一次领取一段序列号 [max - segmentSize + 1, max]
+	private Segment loadSegment(String keyPrefix, DayKey day){
+		Long max = stringRedisTemplate.opsForValue().increment(incrKey(keyPrefix, day), segmentSize);
+		if (max == null) {
+			throw new IllegalStateException("领取id号段失败");
+		}
+		return new Segment(day.epochDay, max - segmentSize + 1, max);
+	}
+
+	// ------------------------------雪花模式-------------------------------
+	// 本实例的标识, 用于识别机器id租约的归属
+	private final String instanceId = UUID.randomUUID().toString();
+	// 当前持有的机器id, -1代表尚未取得或租约已丢失
+	private volatile long workerId = -1;
+	// 最近一次成功取得或续约的时间(发出请求之前的本地时间), 超过租约时间未续约则视为租约已过期
+	private volatile long leaseRenewedMillis;
+	private long lastSecond = -1;
+	private long sequence = 0;
+	private ScheduledExecutorService heartbeat;
+
+	@PostConstruct
+	private void init(){
+		if (strategy == Strategy.SNOWFLAKE) {
+			startLease();
+		}
+	}
+
+	private synchronized long nextSnowflakeId(){
+		if (heartbeat == null) {
+			startLease();
+		}
+		long currentWorkerId = workerId;
+		if (currentWorkerId >= 0 && leaseExpired()) {
+			// 一直没能续约, redis中的租约可能已经过期并被其他实例取得
+			log.warn("机器id租约已过期: {}", currentWorkerId);
+			workerId = -1;
+			currentWorkerId = -1;
+		}
+		if (currentWorkerId < 0) {
+			throw new IllegalStateException("未取得机器id, 无法生成id");
+		}
+		long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+		// 1. 时钟回拨: 小幅回拨沿用上一次的时间戳, 回拨过多直接拒绝
+		if (nowSecond < lastSecond) {
+			if (lastSecond - nowSecond > MAX_BACKWARD_SECONDS) {
+				throw new IllegalStateException("时钟回拨" + (lastSecond - nowSecond) + "秒, 拒绝生成id");
+			}
+			nowSecond = lastSecond;
+		}
+		// 2. 同一秒内序列号自增, 用完则等待下一秒
+		if (nowSecond == lastSecond) {
+			sequence = (sequence + 1) & SEQUENCE_MASK;
+			if (sequence == 0) {
+				nowSecond = waitNextSecond(lastSecond);
+			}
+		} else {
+			sequence = 0;
+		}
+		lastSecond = nowSecond;
+		// 3. 拼接: 时间戳 | 标记 | 机器id | 序列号
+		return (nowSecond - BEGIN_TIMESTAMP) << COUNT_BITS | SNOWFLAKE_FLAG | currentWorkerId << SEQUENCE_BITS | sequence;
+	}
+
+	private long waitNextSecond(long lastSecond){
+		long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+		while (nowSecond <= lastSecond) {
+			Thread.yield();
+			nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+		}
+		return nowSecond;
+	}
+
+	// 取得机器id, 并按租约时间的1/3定期续约
+	private synchronized void startLease(){
+		if (heartbeat != null) {
+			return;
+		}
+		acquireWorkerId();
+		heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "id-worker-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, ID_WORKER_TTL / 3);
+		heartbeat.scheduleAtFixedRate(this::renewWorkerId, period, period, TimeUnit.SECONDS);
+	}
+
+	private boolean leaseExpired(){
+		return System.currentTimeMillis() - leaseRenewedMillis >= TimeUnit.SECONDS.toMillis(ID_WORKER_TTL);
+	}
+
+	private void acquireWorkerId(){
+		for (long id = 0; id <= MAX_WORKER_ID; id++) {
+			long start = System.currentTimeMillis();
+			Boolean success = stringRedisTemplate.opsForValue()
+					.setIfAbsent(ID_WORKER_KEY + id, instanceId, ID_WORKER_TTL, TimeUnit.SECONDS);
+			if (Boolean.TRUE.equals(success)) {
+				leaseRenewedMillis = start;
+				workerId = id;
+				log.info("取得机器id: {}", id);
+				return;
+			}
+		}
+		throw new IllegalStateException("机器id已经全部被占用");
+	}
+
+	private void renewWorkerId(){
+		try {
+			long currentWorkerId = workerId;
+			if (currentWorkerId >= 0) {
+				long start = System.currentTimeMillis();
+				Long renewed = stringRedisTemplate.execute(RENEW_WORKER_SCRIPT,
+						Collections.singletonList(ID_WORKER_KEY + currentWorkerId),
+						instanceId, String.valueOf(ID_WORKER_TTL));
+				if (renewed != null && renewed == 1L) {
+					leaseRenewedMillis = start;
+					return;
+				}
+				// 租约已经丢失, 机器id可能已被其他实例占用, 立即停止使用
+				log.warn("机器id租约丢失: {}", currentWorkerId);
+				workerId = -1;
+			}
+			acquireWorkerId();
+		} catch (Exception e) {
+			log.error("机器id续约失败", e);
+			// redis不可用时无法确认租约, 超过租约时间后停止使用, 等待下次重新取得
+			if (workerId >= 0 && leaseExpired()) {
+				log.warn("机器id租约已过期: {}", workerId);
+				workerId = -1;
+			}
+		}
+	}
+
+	@PreDestroy
+	private void destroy(){
+		segmentLoader.shutdownNow();
+		if (heartbeat != null) {
+			heartbeat.shutdownNow();
+			long currentWorkerId = workerId;
+			if (currentWorkerId >= 0) {
+				stringRedisTemplate.execute(RELEASE_WORKER_SCRIPT,
+						Collections.singletonList(ID_WORKER_KEY + currentWorkerId), instanceId);
+			}
+		}
+	}
+
+	private static final class DayKey {
+		private final long epochDay;
+		private final String date;
+
+		private DayKey(long epochDay, String date) {
+			this.epochDay = epochDay;
+			this.date = date;
+		}
+	}
+
+	private static final class Segment {
+		private final long epochDay;
+		private final long max;
+		private final AtomicLong cursor;
+
+		private Segment(long epochDay, long min, long max) {
+			this.epochDay = epochDay;
+			this.max = max;
+			this.cursor = new AtomicLong(min);
+		}
+	}
+
+	private static final class SegmentBuffer {
+		private volatile Segment current;
+		private volatile Segment next;
+		private final AtomicBoolean loading = new AtomicBoolean();
+	}
 }
@@ -0,0 +1,94 @@
+package com.dp.utils;
+
+import com.dp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * @Author zhou
+ * @Description // 提前刷新: 定时找出最热的K个逻辑过期key, 在过期之前主动重建, 请求永远不会读到过期数据
+ * @Date 2023/9/5
+ */
+@Slf4j
+@Component
+public class RefreshAheadScheduler {
+
+	private final CacheClient cacheClient;
+	private final HotKeyTracker hotKeyTracker;
+	private final CacheRebuildExecutor rebuildExecutor;
+	private final CacheProperties cacheProperties;
+	private final Map<String, Registration<?, ?>> registrations = new ConcurrentHashMap<>();
+
+	public RefreshAheadScheduler(CacheClient cacheClient, HotKeyTracker hotKeyTracker,
+	                             CacheRebuildExecutor rebuildExecutor, CacheProperties cacheProperties) {
+		this.cacheClient = cacheClient;
+		this.hotKeyTracker = hotKeyTracker;
+		this.rebuildExecutor = rebuildExecutor;
+		this.cacheProperties = cacheProperties;
+	}
+
+	/**
+	 * 注册需要提前刷新的key前缀, 参数与 CacheClient.queryWithLogicalExpire 保持一致
+	 * @param idParser 把key中的id字符串转换为callback需要的类型
+	 */
+	public <R, ID> void register(String keyPrefix, String lockPrefix, Class<R> type,
+	                             Function<String, ID> idParser, Function<ID, R> callback,
+	                             Long time, TimeUnit timeUnit) {
+		registrations.put(keyPrefix, new Registration<>(keyPrefix, lockPrefix, type, idParser, callback, time, timeUnit));
+		hotKeyTracker.track(keyPrefix, cacheProperties.getRefreshAheadTopK());
+	}
+
+	@Scheduled(fixedDelayString = "${dp.cache.refresh-ahead-interval-millis:5000}")
+	public void refresh() {
+		// 在这个时间之前过期的热点key都需要刷新
+		LocalDateTime deadline = LocalDateTime.now().plusSeconds(cacheProperties.getRefreshAheadSeconds());
+		for (Registration<?, ?> registration : registrations.values()) {
+			for (HotKeyTracker.HotKey hotKey : hotKeyTracker.hotKeys(registration.keyPrefix)) {
+				LocalDateTime expireTime = hotKey.getExpireTime();
+				if (expireTime == null || expireTime.isAfter(deadline)) {
+					continue;
+				}
+				// 与请求触发的重建共用线程池和去重, 线程池满时等下一轮
+				rebuildExecutor.submit(registration.keyPrefix + hotKey.getId(), () -> {
+					LocalDateTime refreshed = registration.refresh(hotKey.getId(), deadline);
+					if (refreshed != null) {
+						hotKey.setExpireTime(refreshed);
+					}
+				});
+			}
+		}
+	}
+
+	private class Registration<R, ID> {
+		private final String keyPrefix;
+		private final String lockPrefix;
+		private final Class<R> type;
+		private final Function<String, ID> idParser;
+		private final Function<ID, R> callback;
+		private final Long time;
+		private final TimeUnit timeUnit;
+
+		Registration(String keyPrefix, String lockPrefix, Class<R> type, Function<String, ID> idParser,
+		             Function<ID, R> callback, Long time, TimeUnit timeUnit) {
+			this.keyPrefix = keyPrefix;
+			this.lockPrefix = lockPrefix;
+			this.type = type;
+			this.idParser = idParser;
+			this.callback = callback;
+			this.time = time;
+			this.timeUnit = timeUnit;
+		}
+
+		LocalDateTime refresh(String id, LocalDateTime deadline) {
+			return cacheClient.refreshAhead(idParser.apply(id), keyPrefix, lockPrefix, type,
+					callback, time, timeUnit, deadline);
+		}
+	}
+}
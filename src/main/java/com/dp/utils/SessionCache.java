@@ -0,0 +1,116 @@
+package com.dp.utils;
+
+import com.dp.config.SessionProperties;
+import com.dp.dto.UserDTO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.dp.contants.RedisConstants.LOGIN_USER_KEY;
+import static com.dp.contants.RedisConstants.LOGIN_USER_TTL;
+import static com.dp.contants.RedisConstants.SESSION_INVALIDATE_CHANNEL;
+
+/**
+ * @Author zhou
+ * @Description // 登录会话的本地缓存: token -> 用户, 命中时不访问redis;
+ *                 redis中会话的有效期按token限频刷新, 登出时通过发布订阅清除所有节点的本地缓存
+ * @Date 2023/9/12
+ */
+@Component
+public class SessionCache {
+
+	private final StringRedisTemplate stringRedisTemplate;
+	private final Cache<String, Session> localCache;
+	private final long refreshIntervalMillis;
+
+	public SessionCache(StringRedisTemplate stringRedisTemplate, SessionProperties sessionProperties,
+	                    MeterRegistry registry) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.refreshIntervalMillis = TimeUnit.MINUTES.toMillis(sessionProperties.getRefreshIntervalMinutes());
+		this.localCache = Caffeine.newBuilder()
+				.maximumSize(sessionProperties.getLocalMaximumSize())
+				.expireAfterWrite(sessionProperties.getLocalExpireSeconds(), TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		CaffeineCacheMetrics.monitor(registry, localCache, "login-session");
+	}
+
+	/**
+	 * 查询token对应的用户, 会话不存在时返回null
+	 */
+	public UserDTO get(String token) {
+		// 1. 本地缓存未命中时从redis加载, 不存在的会话不缓存
+		Session session = localCache.get(token, this::load);
+		if (session == null) {
+			return null;
+		}
+		// 2. 距离上次刷新超过间隔时延长有效期, CAS保证同一时刻只有一个请求刷新
+		long now = System.currentTimeMillis();
+		long refreshedAt = session.refreshedAt.get();
+		if (now - refreshedAt >= refreshIntervalMillis && session.refreshedAt.compareAndSet(refreshedAt, now)) {
+			stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+		}
+		return session.user;
+	}
+
+	/**
+	 * 登出: 删除redis中的会话, 并通知所有节点清除本地缓存
+	 */
+	public void invalidate(String token) {
+		stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+		evictLocal(token);
+		stringRedisTemplate.convertAndSend(SESSION_INVALIDATE_CHANNEL, token);
+	}
+
+	// 只清除本节点的本地缓存, 由会话失效的订阅消息触发
+	public void evictLocal(String token) {
+		localCache.invalidate(token);
+	}
+
+	// 一次pipeline读取会话和剩余有效期, 由剩余有效期推算上次刷新的时间, 本地缓存过期后重新加载不会额外刷新
+	private Session load(String token) {
+		String key = LOGIN_USER_KEY + token;
+		List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			stringConnection.hGetAll(key);
+			stringConnection.ttl(key, TimeUnit.MILLISECONDS);
+			return null;
+		});
+		@SuppressWarnings("unchecked")
+		Map<Object, Object> userMap = (Map<Object, Object>) results.get(0);
+		if (userMap == null || userMap.isEmpty()) {
+			return null;
+		}
+		// 字段固定, 直接构造, 不再反射拷贝
+		UserDTO user = new UserDTO();
+		Object id = userMap.get("id");
+		user.setId(id == null ? null : Long.valueOf(id.toString()));
+		user.setNickName((String) userMap.get("nickName"));
+		user.setIcon((String) userMap.get("icon"));
+		Long ttl = (Long) results.get(1);
+		long now = System.currentTimeMillis();
+		long refreshedAt = ttl == null || ttl < 0 ? 0 : now - (TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL) - ttl);
+		return new Session(user, refreshedAt);
+	}
+
+	private static class Session {
+		private final UserDTO user;
+		// 上次刷新redis有效期的时间
+		private final AtomicLong refreshedAt;
+
+		Session(UserDTO user, long refreshedAt) {
+			this.user = user;
+			this.refreshedAt = new AtomicLong(refreshedAt);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package com.dp.utils;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.StrUtil;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Author zhou
+ * @Description // 进程内的商铺名称倒排索引: 名称按单字和相邻两字切分(适合没有空格分词的中文),
+ *                 支持关键字搜索和前缀联想, 按评分、销量排序后只返回商铺id
+ * @Date 2023/9/8
+ */
+@Component
+public class ShopNameIndex {
+
+	// 评分高的在前, 评分相同销量高的在前, 最后按id保证顺序稳定
+	private static final Comparator<Doc> RANK = Comparator.comparingInt((Doc doc) -> doc.score).reversed()
+			.thenComparing(Comparator.comparingInt((Doc doc) -> doc.sold).reversed())
+			.thenComparingLong(doc -> doc.id);
+
+	// 词项 -> 名称中包含该词项的商铺id
+	private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+	// 商铺id -> 建索引时的名称和排序字段
+	private final Map<Long, Doc> docs = new ConcurrentHashMap<>();
+	private volatile boolean ready;
+
+	/**
+	 * 全量加载完成之后才能用于查询
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	public void markReady() {
+		this.ready = true;
+	}
+
+	/**
+	 * 写入或更新一个商铺, 名称为空时从索引中移除; 写操作很少, 串行执行
+	 */
+	public synchronized void put(Long id, String name, Integer score, Integer sold) {
+		String normalized = normalize(name);
+		Doc old = docs.get(id);
+		if (old != null && !old.normalized.equals(normalized)) {
+			// 名称变化, 先删除旧名称的词项
+			for (String term : terms(old.normalized)) {
+				Set<Long> ids = postings.get(term);
+				if (ids != null && ids.remove(id) && ids.isEmpty()) {
+					postings.remove(term);
+				}
+			}
+		}
+		if (normalized.isEmpty()) {
+			docs.remove(id);
+			return;
+		}
+		docs.put(id, new Doc(id, name, normalized, score, sold));
+		if (old == null || !old.normalized.equals(normalized)) {
+			for (String term : terms(normalized)) {
+				postings.computeIfAbsent(term, t -> ConcurrentHashMap.newKeySet()).add(id);
+			}
+		}
+	}
+
+	/**
+	 * 名称中包含关键字的商铺, 按评分、销量排序后返回 from 开始的 size 个id
+	 */
+	public List<Long> search(String keyword, int from, int size) {
+		if (from < 0 || size <= 0) {
+			return Collections.emptyList();
+		}
+		List<Doc> matches = match(normalize(keyword));
+		// 调用方负责限制页码, 这里只防止 from + size 溢出
+		List<Doc> top = top(matches, RANK, (int) Math.min((long) from + size, Integer.MAX_VALUE));
+		if (top.size() <= from) {
+			return Collections.emptyList();
+		}
+		List<Long> ids = new ArrayList<>(top.size() - from);
+		for (Doc doc : top.subList(from, top.size())) {
+			ids.add(doc.id);
+		}
+		return ids;
+	}
+
+	/**
+	 * 输入联想: 以前缀开头的名称排在前面, 其次是包含前缀的名称, 同一组内按评分、销量排序
+	 */
+	public List<String> suggest(String prefix, int limit) {
+		String normalized = normalize(prefix);
+		Comparator<Doc> comparator = Comparator.comparing((Doc doc) -> !doc.normalized.startsWith(normalized))
+				.thenComparing(RANK);
+		// 多取一些, 去掉重名的商铺之后仍然够数
+		Set<String> names = new LinkedHashSet<>();
+		for (Doc doc : top(match(normalized), comparator, (int) Math.min(limit * 2L, Integer.MAX_VALUE))) {
+			names.add(doc.name);
+			if (names.size() >= limit) {
+				break;
+			}
+		}
+		return new ArrayList<>(names);
+	}
+
+	// 求所有词项的交集, 再校验名称确实包含关键字: 两字词项都出现并不代表它们在名称中相邻
+	private List<Doc> match(String keyword) {
+		if (keyword.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Set<Long>> sets = new ArrayList<>();
+		for (String term : queryTerms(keyword)) {
+			Set<Long> ids = postings.get(term);
+			if (ids == null) {
+				return Collections.emptyList();
+			}
+			sets.add(ids);
+		}
+		// 从最短的倒排列表开始遍历
+		sets.sort(Comparator.comparingInt(Set::size));
+		List<Doc> matches = new ArrayList<>();
+		outer:
+		for (Long id : sets.get(0)) {
+			for (int i = 1; i < sets.size(); i++) {
+				if (!sets.get(i).contains(id)) {
+					continue outer;
+				}
+			}
+			Doc doc = docs.get(id);
+			if (doc != null && doc.normalized.contains(keyword)) {
+				matches.add(doc);
+			}
+		}
+		return matches;
+	}
+
+	// 用大小为limit的堆取前limit个, 避免对全部结果排序
+	private static List<Doc> top(List<Doc> docs, Comparator<Doc> comparator, int limit) {
+		if (limit <= 0) {
+			return Collections.emptyList();
+		}
+		PriorityQueue<Doc> heap = new PriorityQueue<>(comparator.reversed());
+		for (Doc doc : docs) {
+			if (heap.size() < limit) {
+				heap.offer(doc);
+			} else if (comparator.compare(doc, heap.peek()) < 0) {
+				heap.poll();
+				heap.offer(doc);
+			}
+		}
+		List<Doc> result = new ArrayList<>(heap);
+		result.sort(comparator);
+		return result;
+	}
+
+	// 建索引的词项: 每个字和每两个相邻的字
+	private static Set<String> terms(String normalized) {
+		Set<String> terms = new LinkedHashSet<>();
+		for (int i = 0; i < normalized.length(); i++) {
+			terms.add(normalized.substring(i, i + 1));
+			if (i + 1 < normalized.length()) {
+				terms.add(normalized.substring(i, i + 2));
+			}
+		}
+		return terms;
+	}
+
+	// 查询的词项: 单字直接查, 多个字时只查相邻两字即可覆盖
+	private static Set<String> queryTerms(String keyword) {
+		if (keyword.length() == 1) {
+			return Collections.singleton(keyword);
+		}
+		Set<String> terms = new LinkedHashSet<>();
+		for (int i = 0; i + 1 < keyword.length(); i++) {
+			terms.add(keyword.substring(i, i + 2));
+		}
+		return terms;
+	}
+
+	// 全角转半角、去掉空白、统一小写
+	private static String normalize(String text) {
+		if (StrUtil.isBlank(text)) {
+			return "";
+		}
+		return StrUtil.cleanBlank(Convert.toDBC(text)).toLowerCase(Locale.ROOT);
+	}
+
+	private static class Doc {
+		private final long id;
+		private final String name;
+		private final String normalized;
+		private final int score;
+		private final int sold;
+
+		Doc(long id, String name, String normalized, Integer score, Integer sold) {
+			this.id = id;
+			this.name = name;
+			this.normalized = normalized;
+			this.score = score == null ? 0 : score;
+			this.sold = sold == null ? 0 : sold;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.dp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @Author zhou
+ * @Description // 进程内的商铺空间索引: 按商铺类型划分经纬度网格, 格子中以基本类型数组保存坐标;
+ *                 GEO集合未加载或redis不可用时, 由它回答附近商铺的查询
+ * @Date 2023/9/7
+ */
+@Component
+public class ShopSpatialIndex {
+
+	// 网格边长(度), 约1公里
+	private static final double CELL_DEGREES = 0.01;
+	// 与redis GEO相同的地球半径, 保证两边计算出的距离一致
+	private static final double EARTH_RADIUS = 6372797.560856;
+	private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+	// 商铺类型 -> 网格
+	private final Map<Long, Grid> grids = new ConcurrentHashMap<>();
+	// 商铺id -> 当前所在的类型, 类型变化时从旧的网格中移除
+	private final Map<Long, Long> shopTypes = new ConcurrentHashMap<>();
+	private volatile boolean ready;
+
+	/**
+	 * 全量加载完成之后才能用于查询
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	public void markReady() {
+		this.ready = true;
+	}
+
+	/**
+	 * 写入或移动一个商铺, 类型或坐标为空时从索引中移除
+	 */
+	public void put(Long id, Long typeId, Double x, Double y) {
+		boolean removed = typeId == null || x == null || y == null;
+		Long oldType = removed ? shopTypes.remove(id) : shopTypes.put(id, typeId);
+		if (oldType != null && (removed || !oldType.equals(typeId))) {
+			Grid old = grids.get(oldType);
+			if (old != null) {
+				old.remove(id);
+			}
+		}
+		if (typeId != null && x != null && y != null) {
+			grids.computeIfAbsent(typeId, t -> new Grid()).upsert(id, x, y);
+		}
+	}
+
+	/**
+	 * 距离最近的k个商铺, 只返回maxMeters以内的, 按距离由近到远排列
+	 */
+	public List<Neighbor> nearest(Long typeId, double x, double y, int k, double maxMeters) {
+		Grid grid = grids.get(typeId);
+		if (grid == null || k <= 0) {
+			return Collections.emptyList();
+		}
+		int cx = cellIndex(x);
+		int cy = cellIndex(y);
+		// 格子最短边的长度(米), 经度方向的长度随纬度变小
+		double cellMeters = CELL_DEGREES * METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(y)), 0.01);
+		int maxRing = (int) Math.ceil(maxMeters / cellMeters) + 1;
+		// 大顶堆, 只保留当前最近的k个
+		PriorityQueue<Neighbor> heap = new PriorityQueue<>(Comparator.comparingDouble(Neighbor::getDistance).reversed());
+		grid.lock.readLock().lock();
+		try {
+			// 从所在的格子开始一圈一圈向外扩展
+			for (int ring = 0; ring <= maxRing; ring++) {
+				for (int i = -ring; i <= ring; i++) {
+					for (int j = -ring; j <= ring; j++) {
+						if (Math.max(Math.abs(i), Math.abs(j)) != ring) {
+							continue;
+						}
+						Cell cell = grid.cells.get(cellKey(cx + i, cy + j));
+						if (cell != null) {
+							cell.collect(x, y, k, maxMeters, heap);
+						}
+					}
+				}
+				// 下一圈的格子至少相距 ring 个格子, 已经找到的k个都更近时停止
+				if (heap.size() >= k && heap.peek().getDistance() <= ring * cellMeters) {
+					break;
+				}
+			}
+		} finally {
+			grid.lock.readLock().unlock();
+		}
+		List<Neighbor> result = new ArrayList<>(heap);
+		result.sort(Comparator.comparingDouble(Neighbor::getDistance));
+		return result;
+	}
+
+	/**
+	 * meters以内的全部商铺, 按距离由近到远排列
+	 */
+	public List<Neighbor> radius(Long typeId, double x, double y, double meters) {
+		return nearest(typeId, x, y, Integer.MAX_VALUE, meters);
+	}
+
+	private static int cellIndex(double degrees) {
+		return (int) Math.floor(degrees / CELL_DEGREES);
+	}
+
+	private static long cellKey(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	// haversine公式计算两点间的球面距离(米)
+	private static double distance(double x1, double y1, double x2, double y2) {
+		double lat1 = Math.toRadians(y1);
+		double lat2 = Math.toRadians(y2);
+		double u = Math.sin((lat2 - lat1) / 2);
+		double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+		return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+	}
+
+	public static class Neighbor {
+		private final long id;
+		private final double distance;
+
+		Neighbor(long id, double distance) {
+			this.id = id;
+			this.distance = distance;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public double getDistance() {
+			return distance;
+		}
+	}
+
+	// 一种商铺类型的网格, 读多写少, 用读写锁保护
+	private static class Grid {
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private final Map<Long, Cell> cells = new HashMap<>();
+		// 商铺id -> 所在格子
+		private final Map<Long, Long> cellOf = new HashMap<>();
+
+		void upsert(long id, double x, double y) {
+			lock.writeLock().lock();
+			try {
+				removeLocked(id);
+				long key = cellKey(cellIndex(x), cellIndex(y));
+				cells.computeIfAbsent(key, c -> new Cell()).add(id, x, y);
+				cellOf.put(id, key);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		void remove(long id) {
+			lock.writeLock().lock();
+			try {
+				removeLocked(id);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		private void removeLocked(long id) {
+			Long key = cellOf.remove(id);
+			if (key == null) {
+				return;
+			}
+			Cell cell = cells.get(key);
+			if (cell != null && cell.remove(id) && cell.size == 0) {
+				cells.remove(key);
+			}
+		}
+	}
+
+	// 一个格子内的商铺, 以并列的基本类型数组保存
+	private static class Cell {
+		private long[] ids = new long[4];
+		private double[] xs = new double[4];
+		private double[] ys = new double[4];
+		private int size;
+
+		void add(long id, double x, double y) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				xs = Arrays.copyOf(xs, size * 2);
+				ys = Arrays.copyOf(ys, size * 2);
+			}
+			ids[size] = id;
+			xs[size] = x;
+			ys[size] = y;
+			size++;
+		}
+
+		// 用最后一个元素填补空位
+		boolean remove(long id) {
+			for (int i = 0; i < size; i++) {
+				if (ids[i] == id) {
+					size--;
+					ids[i] = ids[size];
+					xs[i] = xs[size];
+					ys[i] = ys[size];
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void collect(double x, double y, int k, double maxMeters, PriorityQueue<Neighbor> heap) {
+			for (int i = 0; i < size; i++) {
+				double d = distance(x, y, xs[i], ys[i]);
+				if (d > maxMeters) {
+					continue;
+				}
+				if (heap.size() < k) {
+					heap.offer(new Neighbor(ids[i], d));
+				} else if (d < heap.peek().getDistance()) {
+					heap.poll();
+					heap.offer(new Neighbor(ids[i], d));
+				}
+			}
+		}
+	}
+}
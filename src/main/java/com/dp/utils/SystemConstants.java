@@ -5,5 +5,7 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 附近商铺的搜索半径(米)
+    public static final double NEARBY_SHOP_RADIUS = 5000;
     public static final String LOGIN_CODE_KEY = "login:code:";
 }
@@ -0,0 +1,248 @@
+package com.dp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import com.dp.mapper.CounterMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.dp.contants.RedisConstants.*;
+
+/**
+ * @Author zhou
+ * @Description // 计数字段延迟写回: 请求只累加内存中的LongAdder, 定时汇总到redis中的变化日志(hash),
+ *                 再由一个节点把变化日志批量写回数据库, 把每次请求一条的UPDATE合并成少量批量更新;
+ *                 每批更新和批次记录在同一个事务中提交, 写回中途失败后重试不会重复累加
+ *                 内存中的变化每隔 dp.counter.drain-interval-millis 才写入redis, 进程崩溃(而非正常关闭)时
+ *                 最多丢失一个汇总间隔内的计数变化; 正常关闭时 @PreDestroy 会把剩余的变化写入redis
+ * @Date 2023/9/9
+ */
+@Slf4j
+@Component
+public class WriteBehindCounter {
+
+	// 每条批量更新语句包含的记录数量
+	private static final int FLUSH_BATCH_SIZE = 500;
+	// 批次记录保留的天数, 超过后清理
+	private static final long FLUSHED_RETENTION_DAYS = 7;
+	// 每次清理的批次记录数量
+	private static final int FLUSHED_CLEAN_LIMIT = 1000;
+	// 开始一次写回: 上次没有写完时沿用原来的写回id, 否则把变化日志改名并生成新的写回id; 没有变化时返回空串
+	private static final DefaultRedisScript<String> START_FLUSH_SCRIPT = new DefaultRedisScript<>(
+			"if redis.call('exists', KEYS[2]) == 1 then " +
+			"local id = redis.call('get', KEYS[3]) if id then return id end " +
+			"redis.call('set', KEYS[3], ARGV[1]) return ARGV[1] end " +
+			"if redis.call('exists', KEYS[1]) == 0 then return '' end " +
+			"redis.call('rename', KEYS[1], KEYS[2]) redis.call('set', KEYS[3], ARGV[1]) return ARGV[1]",
+			String.class);
+
+	/**
+	 * 支持延迟写回的计数字段
+	 */
+	public enum Type {
+		BLOG_LIKED("tb_blog", "liked"),
+		BLOG_COMMENTS("tb_blog", "comments");
+
+		private final String table;
+		private final String column;
+
+		Type(String table, String column) {
+			this.table = table;
+			this.column = column;
+		}
+
+		// 变化日志的key, 脚本可以直接对它 HINCRBY
+		public String deltaKey() {
+			return COUNTER_DELTA_KEY + table + ":" + column;
+		}
+
+		String flushingKey() {
+			return COUNTER_FLUSHING_KEY + table + ":" + column;
+		}
+
+		String lockKey() {
+			return LOCK_COUNTER_FLUSH_KEY + table + ":" + column;
+		}
+
+		String flushIdKey() {
+			return COUNTER_FLUSH_ID_KEY + table + ":" + column;
+		}
+	}
+
+	private final StringRedisTemplate stringRedisTemplate;
+	private final CounterMapper counterMapper;
+	private final TransactionTemplate transactionTemplate;
+	// 正在累加的计数, 每次汇总时整体换成新的map
+	private final Map<Type, Map<Long, LongAdder>> current = new ConcurrentHashMap<>();
+	// 上一轮换下来的计数, 换下时可能还有请求在累加, 推迟一轮再汇总一次
+	private final Map<Type, Map<Long, LongAdder>> retired = new EnumMap<>(Type.class);
+
+	public WriteBehindCounter(StringRedisTemplate stringRedisTemplate, CounterMapper counterMapper,
+	                          TransactionTemplate transactionTemplate) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.counterMapper = counterMapper;
+		this.transactionTemplate = transactionTemplate;
+	}
+
+	/**
+	 * 累加一个计数, 只修改内存
+	 */
+	public void increment(Type type, Long id, long delta) {
+		current.computeIfAbsent(type, t -> new ConcurrentHashMap<>())
+				.computeIfAbsent(id, i -> new LongAdder())
+				.add(delta);
+	}
+
+	/**
+	 * 把内存中的计数变化写入redis变化日志, 写入之后即使本节点宕机也不会丢失
+	 */
+	@Scheduled(fixedDelayString = "${dp.counter.drain-interval-millis:1000}")
+	public synchronized void drain() {
+		for (Type type : Type.values()) {
+			// 换下正在累加的map, 之后的累加写入新的map
+			Map<Long, LongAdder> swapped = current.remove(type);
+			// 上一轮换下的map再汇总一次, 收集换下时仍在进行中的累加
+			Map<Long, LongAdder> previous = swapped == null ? retired.remove(type) : retired.put(type, swapped);
+			Map<Long, Long> deltas = new HashMap<>();
+			sumThenReset(previous, deltas);
+			sumThenReset(swapped, deltas);
+			append(type, deltas);
+		}
+	}
+
+	/**
+	 * 把redis变化日志批量写回数据库, 集群中同一时间只有一个节点处理同一个计数字段
+	 */
+	@Scheduled(fixedDelayString = "${dp.counter.flush-interval-millis:5000}")
+	public void flush() {
+		for (Type type : Type.values()) {
+			try {
+				flush(type);
+			} catch (Exception e) {
+				log.error("计数写回数据库失败, {}.{}", type.table, type.column, e);
+			}
+		}
+		try {
+			counterMapper.deleteFlushedBefore(LocalDateTime.now().minusDays(FLUSHED_RETENTION_DAYS), FLUSHED_CLEAN_LIMIT);
+		} catch (Exception e) {
+			log.warn("清理计数写回批次记录失败", e);
+		}
+	}
+
+	// 应用关闭前把内存中的计数全部写入redis, 第二次汇总清空推迟的一轮
+	@PreDestroy
+	public void shutdown() {
+		drain();
+		drain();
+	}
+
+	private void flush(Type type) {
+		String owner = UUID.randomUUID().toString(true);
+		Boolean locked = stringRedisTemplate.opsForValue()
+				.setIfAbsent(type.lockKey(), owner, LOCK_COUNTER_FLUSH_TTL, TimeUnit.SECONDS);
+		if (!BooleanUtil.isTrue(locked)) {
+			return;
+		}
+		try {
+			// 1. 上次没有写完的优先处理; 否则把变化日志改名, 之后的变化写入新的hash
+			String flushId = stringRedisTemplate.execute(START_FLUSH_SCRIPT,
+					Arrays.asList(type.deltaKey(), type.flushingKey(), type.flushIdKey()),
+					UUID.randomUUID().toString(true));
+			if (flushId == null || flushId.isEmpty()) {
+				return;
+			}
+			// 2. 读取全部变化, 互相抵消为0的不需要写
+			Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(type.flushingKey());
+			List<Long> ids = new ArrayList<>(entries.size());
+			Map<Long, Long> deltas = new HashMap<>(entries.size() * 2);
+			entries.forEach((id, delta) -> {
+				long value = Long.parseLong(delta.toString());
+				if (value != 0) {
+					Long key = Long.valueOf(id.toString());
+					ids.add(key);
+					deltas.put(key, value);
+				}
+			});
+			// 按id排序后分批, 只会整批从hash中删除, 重试时剩下的部分切分出的批次与上次相同
+			Collections.sort(ids);
+			// 3. 分批更新数据库, 每批成功后从hash中删除, 失败时下次只重试剩下的部分
+			for (int from = 0; from < ids.size(); from += FLUSH_BATCH_SIZE) {
+				List<Long> batchIds = ids.subList(from, Math.min(from + FLUSH_BATCH_SIZE, ids.size()));
+				Map<Long, Long> batch = new HashMap<>(batchIds.size() * 2);
+				batchIds.forEach(id -> batch.put(id, deltas.get(id)));
+				// 批次id = 写回id:批次中最小的记录id, 与更新在同一个事务中记录, 已经记录过说明上次更新成功但没来得及删除
+				String batchId = flushId + ":" + batchIds.get(0);
+				Boolean applied = transactionTemplate.execute(status -> {
+					if (counterMapper.markFlushed(batchId) == 0) {
+						return false;
+					}
+					counterMapper.incrBatch(type.table, type.column, batch);
+					return true;
+				});
+				if (!BooleanUtil.isTrue(applied)) {
+					log.info("计数批次已经写回过, 跳过: {}", batchId);
+				}
+				stringRedisTemplate.opsForHash().delete(type.flushingKey(),
+						batchIds.stream().map(String::valueOf).toArray());
+			}
+			// 4. 全部写完
+			stringRedisTemplate.delete(Arrays.asList(type.flushingKey(), type.flushIdKey()));
+			if (!ids.isEmpty()) {
+				log.debug("计数写回数据库, {}.{}, 记录数: {}", type.table, type.column, ids.size());
+			}
+		} finally {
+			// 只释放自己持有的锁
+			if (owner.equals(stringRedisTemplate.opsForValue().get(type.lockKey()))) {
+				stringRedisTemplate.delete(type.lockKey());
+			}
+		}
+	}
+
+	// 一次pipeline追加到变化日志, redis不可用时放回内存等下次
+	private void append(Type type, Map<Long, Long> deltas) {
+		if (deltas.isEmpty()) {
+			return;
+		}
+		try {
+			stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				StringRedisConnection stringConnection = (StringRedisConnection) connection;
+				deltas.forEach((id, delta) -> stringConnection.hIncrBy(type.deltaKey(), id.toString(), delta));
+				return null;
+			});
+		} catch (Exception e) {
+			log.warn("计数写入变化日志失败, {}.{}, 记录数: {}", type.table, type.column, deltas.size(), e);
+			deltas.forEach((id, delta) -> increment(type, id, delta));
+		}
+	}
+
+	private static void sumThenReset(Map<Long, LongAdder> adders, Map<Long, Long> deltas) {
+		if (adders == null) {
+			return;
+		}
+		adders.forEach((id, adder) -> {
+			long sum = adder.sumThenReset();
+			if (sum != 0) {
+				deltas.merge(id, sum, Long::sum);
+			}
+		});
+	}
+}
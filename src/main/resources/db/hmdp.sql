@@ -65,6 +65,17 @@ CREATE TABLE `tb_blog_comments`  (
 -- Records of tb_blog_comments
 -- ----------------------------
 
+-- ----------------------------
+-- Table structure for tb_counter_flush
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_counter_flush`;
+CREATE TABLE `tb_counter_flush`  (
+  `batch_id` varchar(64) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '已经写回的计数批次: 写回id:批次中最小的记录id',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  PRIMARY KEY (`batch_id`) USING BTREE,
+  INDEX `idx_create_time`(`create_time`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
+
 -- ----------------------------
 -- Table structure for tb_follow
 -- ----------------------------
@@ -74,7 +85,9 @@ CREATE TABLE `tb_follow`  (
   `user_id` bigint(20) UNSIGNED NOT NULL COMMENT '用户id',
   `follow_user_id` bigint(20) UNSIGNED NOT NULL COMMENT '关联的用户id',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_follow`(`user_id`, `follow_user_id`) USING BTREE,
+  INDEX `idx_follow_user`(`follow_user_id`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
@@ -187,6 +200,21 @@ CREATE TABLE `tb_sign`  (
 -- Records of tb_sign
 -- ----------------------------
 
+-- ----------------------------
+-- Table structure for tb_sign_month
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_sign_month`;
+CREATE TABLE `tb_sign_month`  (
+  `id` bigint(20) UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `user_id` bigint(20) UNSIGNED NOT NULL COMMENT '用户id',
+  `month` int(6) UNSIGNED NOT NULL COMMENT '签到的月份, 格式yyyyMM',
+  `bits` int(10) UNSIGNED NOT NULL DEFAULT 0 COMMENT '当月的签到记录, 第n天签到则第n-1位为1',
+  `sign_count` tinyint(2) UNSIGNED NOT NULL DEFAULT 0 COMMENT '当月的签到天数',
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_month`(`user_id`, `month`) USING BTREE
+) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
+
 -- ----------------------------
 -- Table structure for tb_user
 -- ----------------------------
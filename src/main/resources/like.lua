@@ -0,0 +1,19 @@
+-- 点赞/取消点赞: 用户已点赞则取消, 否则点赞, 同时累加待写回数据库的点赞数变化
+-- KEYS[1] 博文的点赞用户zset  KEYS[2] 点赞数的变化日志(hash), 定时批量写回数据库
+-- ARGV[1] 博文id  ARGV[2] 用户id  ARGV[3] 当前时间戳(毫秒)
+local likedKey = KEYS[1]
+local deltaKey = KEYS[2]
+local blogId = ARGV[1]
+local userId = ARGV[2]
+local now = ARGV[3]
+
+-- 1. 已经点过赞, 取消点赞, 返回0
+if redis.call('zscore', likedKey, userId) then
+    redis.call('zrem', likedKey, userId)
+    redis.call('hincrby', deltaKey, blogId, -1)
+    return 0
+end
+-- 2. 点赞, 以时间戳为分数, 返回1
+redis.call('zadd', likedKey, now, userId)
+redis.call('hincrby', deltaKey, blogId, 1)
+return 1
@@ -0,0 +1,38 @@
+-- 秒杀资格判断: 秒杀时间、库存是否充足、用户是否下过单, 通过后扣减库存并记录下单用户
+-- KEYS[1] 库存key  KEYS[2] 已下单用户集合key  KEYS[3] 秒杀时间key  KEYS[4] 订单stream(可选, 异步下单时传入)
+-- ARGV[1] 优惠券id  ARGV[2] 用户id  ARGV[3] 订单id(同步下单时为空串)  ARGV[4] 当前时间戳(毫秒)
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local timeKey = KEYS[3]
+local streamKey = KEYS[4]
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+local now = tonumber(ARGV[4])
+
+-- 1. 秒杀信息还没有加载到redis, 返回4
+local stock = redis.call('get', stockKey)
+local window = redis.call('hmget', timeKey, 'begin', 'end')
+if not stock or not window[1] or not window[2] then
+    return 4
+end
+-- 2. 秒杀尚未开始或已经结束, 返回3
+if now < tonumber(window[1]) or now > tonumber(window[2]) then
+    return 3
+end
+-- 3. 库存不足, 返回1
+if tonumber(stock) <= 0 then
+    return 1
+end
+-- 4. 用户已经下过单, 返回2
+if redis.call('sismember', orderKey, userId) == 1 then
+    return 2
+end
+-- 5. 扣减库存, 记录下单用户
+redis.call('incrby', stockKey, -1)
+redis.call('sadd', orderKey, userId)
+-- 6. 异步下单时投递订单消息 XADD stream.orders * k1 v1 ...
+if streamKey then
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+end
+return 0
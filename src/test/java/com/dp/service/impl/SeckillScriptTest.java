@@ -0,0 +1,171 @@
+package com.dp.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 在LuaJ中执行 seckill.lua, redis.call 由内存中的数据模拟
+ */
+class SeckillScriptTest {
+
+    private static final String STOCK_KEY = "seckill:stock:1";
+    private static final String ORDER_KEY = "seckill:order:1";
+    private static final String TIME_KEY = "seckill:time:1";
+    private static final String STREAM_KEY = "stream.orders";
+    private static final long NOW = 1_700_000_000_000L;
+
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private final List<Map<String, String>> stream = new ArrayList<>();
+    private String script;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        script = StreamUtils.copyToString(new ClassPathResource("seckill.lua").getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void notLoaded() {
+        assertEquals(4, run(true, "7", "123"));
+    }
+
+    @Test
+    public void outsideWindow() {
+        load(10, NOW + 1000, NOW + 2000);
+        assertEquals(3, run(true, "7", "123"));
+        load(10, NOW - 2000, NOW - 1000);
+        assertEquals(3, run(true, "7", "123"));
+    }
+
+    @Test
+    public void soldOut() {
+        load(0, NOW - 1000, NOW + 1000);
+        assertEquals(1, run(true, "7", "123"));
+    }
+
+    @Test
+    public void alreadyOrdered() {
+        load(10, NOW - 1000, NOW + 1000);
+        sets.computeIfAbsent(ORDER_KEY, k -> new HashSet<>()).add("7");
+        assertEquals(2, run(true, "7", "123"));
+        assertEquals("10", strings.get(STOCK_KEY));
+    }
+
+    @Test
+    public void rejectedAsyncOrderChangesNothing() {
+        load(0, NOW - 1000, NOW + 1000);
+        assertEquals(1, run(true, "7", "123"));
+        assertEquals("0", strings.get(STOCK_KEY));
+        assertTrue(sets.getOrDefault(ORDER_KEY, new HashSet<>()).isEmpty());
+        assertTrue(stream.isEmpty());
+    }
+
+    @Test
+    public void asyncOrderDeductsStockAndEnqueues() {
+        load(10, NOW - 1000, NOW + 1000);
+        assertEquals(0, run(true, "7", "123"));
+        assertEquals("9", strings.get(STOCK_KEY));
+        assertTrue(sets.get(ORDER_KEY).contains("7"));
+        assertEquals(1, stream.size());
+        assertEquals("7", stream.get(0).get("userId"));
+        assertEquals("1", stream.get(0).get("voucherId"));
+        assertEquals("123", stream.get(0).get("id"));
+        // 同一个用户再次下单
+        assertEquals(2, run(true, "7", "124"));
+        assertEquals(1, stream.size());
+    }
+
+    @Test
+    public void syncOrderNeedsNoOrderId() {
+        load(1, NOW - 1000, NOW + 1000);
+        assertEquals(0, run(false, "7", ""));
+        assertEquals("0", strings.get(STOCK_KEY));
+        assertTrue(stream.isEmpty());
+        assertEquals(1, run(false, "8", ""));
+    }
+
+    private void load(int stock, long begin, long end) {
+        strings.put(STOCK_KEY, String.valueOf(stock));
+        Map<String, String> window = new HashMap<>();
+        window.put("begin", String.valueOf(begin));
+        window.put("end", String.valueOf(end));
+        hashes.put(TIME_KEY, window);
+    }
+
+    private int run(boolean async, String userId, String orderId) {
+        Globals globals = JsePlatform.standardGlobals();
+        LuaTable keys = LuaValue.listOf(async
+                ? new LuaValue[]{LuaValue.valueOf(STOCK_KEY), LuaValue.valueOf(ORDER_KEY), LuaValue.valueOf(TIME_KEY), LuaValue.valueOf(STREAM_KEY)}
+                : new LuaValue[]{LuaValue.valueOf(STOCK_KEY), LuaValue.valueOf(ORDER_KEY), LuaValue.valueOf(TIME_KEY)});
+        LuaTable argv = LuaValue.listOf(new LuaValue[]{LuaValue.valueOf("1"), LuaValue.valueOf(userId),
+                LuaValue.valueOf(orderId), LuaValue.valueOf(String.valueOf(NOW))});
+        LuaTable redis = new LuaTable();
+        redis.set("call", new RedisCall());
+        globals.set("KEYS", keys);
+        globals.set("ARGV", argv);
+        globals.set("redis", redis);
+        return globals.load(script).call().toint();
+    }
+
+    // 只实现脚本用到的命令, 不存在的值与redis一样返回false
+    private class RedisCall extends VarArgFunction {
+        @Override
+        public Varargs invoke(Varargs args) {
+            String command = args.arg1().tojstring().toLowerCase();
+            String key = args.arg(2).tojstring();
+            switch (command) {
+                case "get":
+                    return strings.containsKey(key) ? LuaValue.valueOf(strings.get(key)) : LuaValue.FALSE;
+                case "hmget": {
+                    Map<String, String> hash = hashes.getOrDefault(key, new HashMap<>());
+                    LuaTable result = new LuaTable();
+                    for (int i = 3; i <= args.narg(); i++) {
+                        String value = hash.get(args.arg(i).tojstring());
+                        result.set(i - 2, value == null ? LuaValue.FALSE : LuaValue.valueOf(value));
+                    }
+                    return result;
+                }
+                case "sismember":
+                    return LuaValue.valueOf(sets.getOrDefault(key, new HashSet<>()).contains(args.arg(3).tojstring()) ? 1 : 0);
+                case "incrby": {
+                    long value = Long.parseLong(strings.getOrDefault(key, "0")) + args.arg(3).tolong();
+                    strings.put(key, String.valueOf(value));
+                    return LuaValue.valueOf(value);
+                }
+                case "sadd":
+                    return LuaValue.valueOf(sets.computeIfAbsent(key, k -> new HashSet<>()).add(args.arg(3).tojstring()) ? 1 : 0);
+                case "xadd": {
+                    Map<String, String> entry = new HashMap<>();
+                    for (int i = 4; i < args.narg(); i += 2) {
+                        entry.put(args.arg(i).tojstring(), args.arg(i + 1).tojstring());
+                    }
+                    stream.add(entry);
+                    return LuaValue.valueOf(stream.size() + "-0");
+                }
+                default:
+                    throw new UnsupportedOperationException(command);
+            }
+        }
+    }
+}
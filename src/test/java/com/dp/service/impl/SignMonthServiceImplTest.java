@@ -0,0 +1,102 @@
+package com.dp.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 签到位图的转换, 以及跨月的连续签到天数
+ */
+class SignMonthServiceImplTest {
+
+    // 月份 -> 签到位图, 第n天对应第n-1位
+    private final Map<YearMonth, Integer> months = new HashMap<>();
+    private final List<YearMonth> reads = new ArrayList<>();
+
+    @Test
+    public void toBitsPutsFirstDayInLowestBit() {
+        YearMonth september = YearMonth.of(2023, 9);
+        // BITFIELD GET u30 0: 第1天在最高位
+        long value = 1L << 29 | 1L << 28 | 1L;
+
+        assertEquals(1 | 1 << 1 | 1 << 29, SignMonthServiceImpl.toBits(Collections.singletonList(value), september));
+        assertEquals(0, SignMonthServiceImpl.toBits(null, september));
+        assertEquals(0, SignMonthServiceImpl.toBits(Collections.singletonList(null), september));
+    }
+
+    @Test
+    public void streakWithinMonth() {
+        sign(YearMonth.of(2023, 9), 3, 4, 5);
+
+        assertEquals(3, streak(LocalDate.of(2023, 9, 5)));
+        // 今天还没有签到时从昨天开始算
+        assertEquals(3, streak(LocalDate.of(2023, 9, 6)));
+        assertEquals(0, streak(LocalDate.of(2023, 9, 7)));
+    }
+
+    @Test
+    public void streakCrossesMonthAndYearBoundaries() {
+        sign(YearMonth.of(2024, 3), 1, 2);
+        signAll(YearMonth.of(2024, 2));
+        signAll(YearMonth.of(2024, 1));
+        sign(YearMonth.of(2023, 12), 31);
+
+        // 2天 + 闰年二月29天 + 一月31天 + 12月31日
+        assertEquals(2 + 29 + 31 + 1, streak(LocalDate.of(2024, 3, 2)));
+        assertEquals(4, reads.size());
+    }
+
+    @Test
+    public void streakBreaksOnLastDayOfPreviousMonth() {
+        sign(YearMonth.of(2023, 10), 1);
+        // 9月30日没有签到
+        sign(YearMonth.of(2023, 9), 28, 29);
+
+        assertEquals(1, streak(LocalDate.of(2023, 10, 1)));
+    }
+
+    @Test
+    public void streakLooksBackAtMostTwelveMonths() {
+        LocalDate today = LocalDate.of(2023, 9, 10);
+        for (int i = 0; i <= 24; i++) {
+            signAll(YearMonth.from(today).minusMonths(i));
+        }
+
+        int expected = today.getDayOfMonth();
+        for (int i = 1; i <= 12; i++) {
+            expected += YearMonth.from(today).minusMonths(i).lengthOfMonth();
+        }
+        assertEquals(expected, streak(today));
+        assertEquals(13, reads.size());
+    }
+
+    private int streak(LocalDate today) {
+        reads.clear();
+        return SignMonthServiceImpl.streak(today, month -> {
+            reads.add(month);
+            return months.getOrDefault(month, 0);
+        });
+    }
+
+    private void sign(YearMonth month, int... days) {
+        int bits = months.getOrDefault(month, 0);
+        for (int day : days) {
+            bits |= 1 << (day - 1);
+        }
+        months.put(month, bits);
+    }
+
+    private void signAll(YearMonth month) {
+        for (int day = 1; day <= month.lengthOfMonth(); day++) {
+            sign(month, day);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.dp.service.impl;
+
+import com.baomidou.mybatisplus.extension.conditions.update.UpdateChainWrapper;
+import com.dp.entity.SeckillVoucher;
+import com.dp.entity.VoucherOrder;
+import com.dp.mapper.VoucherOrderMapper;
+import com.dp.service.ISeckillVoucherService;
+import com.dp.service.IVoucherOrderService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Constructor;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static com.dp.contants.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 秒杀订单的stream消费者: 启动时处理pending-list, 定期接管其他消费者的消息, 超过投递次数的消息转入死信
+ */
+class VoucherOrderServiceImplTest {
+
+    private final VoucherOrderServiceImpl service = new VoucherOrderServiceImpl();
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    private final IVoucherOrderService proxy = mock(IVoucherOrderService.class);
+    private final ISeckillVoucherService seckillVoucherService = mock(ISeckillVoucherService.class);
+    private final VoucherOrderMapper voucherOrderMapper = mock(VoucherOrderMapper.class);
+    @SuppressWarnings("unchecked")
+    private final StreamOperations<String, Object, Object> streamOperations = mock(StreamOperations.class);
+    // 依次返回给 XREADGROUP ... 0 的pending-list内容, 取完后返回空
+    private final Queue<List<MapRecord<String, Object, Object>>> pendingReads = new LinkedList<>();
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(service, "proxy", proxy);
+        ReflectionTestUtils.setField(service, "iSeckillVoucherService", seckillVoucherService);
+        ReflectionTestUtils.setField(service, "baseMapper", voucherOrderMapper);
+        ReflectionTestUtils.setField(service, "consumerName", "c1");
+        ReflectionTestUtils.setField(service, "maxDeliveryCount", 3L);
+        doReturn(streamOperations).when(stringRedisTemplate).opsForStream();
+        when(streamOperations.pending(eq(SECKILL_STREAM_KEY), eq(SECKILL_STREAM_GROUP), any(Range.class), anyLong()))
+                .thenReturn(new PendingMessages(SECKILL_STREAM_GROUP, Collections.emptyList()));
+        when(streamOperations.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class)))
+                .thenAnswer(invocation -> {
+                    StreamOffset<?> offset = invocation.getArgument(2);
+                    if ("0".equals(offset.getOffset().getOffset())) {
+                        List<MapRecord<String, Object, Object>> records = pendingReads.poll();
+                        return records == null ? Collections.emptyList() : records;
+                    }
+                    // 进入读取新消息的循环后结束消费者
+                    ReflectionTestUtils.setField(service, "running", false);
+                    return Collections.emptyList();
+                });
+    }
+
+    @Test
+    public void drainsPendingListAtStartup() throws Exception {
+        MapRecord<String, Object, Object> record = record("1-0", 100L, 7L);
+        pendingReads.add(Collections.singletonList(record));
+
+        handler().run();
+
+        ArgumentCaptor<List<VoucherOrder>> orders = captor();
+        verify(proxy).saveVoucherOrders(orders.capture());
+        assertEquals(100L, orders.getValue().get(0).getId());
+        assertEquals(7L, orders.getValue().get(0).getUserId());
+        verify(streamOperations).acknowledge(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, record.getId());
+    }
+
+    @Test
+    public void retriesFailedMessageBelowDeliveryLimit() throws Exception {
+        MapRecord<String, Object, Object> record = record("1-0", 100L, 7L);
+        pendingReads.add(Collections.singletonList(record));
+        pendingReads.add(Collections.singletonList(record));
+        doThrow(new RuntimeException("db down")).doNothing().when(proxy).saveVoucherOrders(anyList());
+        deliveredTimes(record.getId(), 1);
+
+        handler().run();
+
+        verify(proxy, times(2)).saveVoucherOrders(anyList());
+        verify(streamOperations, never()).add(eq(SECKILL_DEAD_LETTER_KEY), anyMap());
+        verify(streamOperations).acknowledge(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, record.getId());
+    }
+
+    @Test
+    public void deadLettersPoisonMessageWithoutBlockingOthers() throws Exception {
+        MapRecord<String, Object, Object> poison = record("1-0", 100L, 7L);
+        MapRecord<String, Object, Object> good = record("2-0", 101L, 8L);
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>();
+        batch.add(poison);
+        batch.add(good);
+        pendingReads.add(batch);
+        doAnswer(invocation -> {
+            List<VoucherOrder> orders = invocation.getArgument(0);
+            if (orders.get(0).getId() == 100L) {
+                throw new RuntimeException("bad order");
+            }
+            return null;
+        }).when(proxy).saveVoucherOrders(anyList());
+        deliveredTimes(poison.getId(), 3);
+
+        handler().run();
+
+        ArgumentCaptor<Map<Object, Object>> deadLetter = captor();
+        verify(streamOperations).add(eq(SECKILL_DEAD_LETTER_KEY), deadLetter.capture());
+        assertEquals("1-0", deadLetter.getValue().get("sourceId"));
+        assertEquals("bad order", deadLetter.getValue().get("error"));
+        assertEquals("100", deadLetter.getValue().get("id"));
+        verify(streamOperations).acknowledge(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, poison.getId());
+        verify(streamOperations).acknowledge(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, good.getId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void periodicSweepClaimsIdleMessagesOfOtherConsumers() {
+        ReflectionTestUtils.setField(service, "seckillAsync", true);
+        when(streamOperations.pending(eq(SECKILL_STREAM_KEY), eq(SECKILL_STREAM_GROUP), any(Range.class), anyLong()))
+                .thenReturn(new PendingMessages(SECKILL_STREAM_GROUP, Arrays.asList(
+                        new PendingMessage(RecordId.of("1-0"), Consumer.from(SECKILL_STREAM_GROUP, "c2"), Duration.ofMinutes(5), 1),
+                        new PendingMessage(RecordId.of("2-0"), Consumer.from(SECKILL_STREAM_GROUP, "c2"), Duration.ofSeconds(1), 1),
+                        new PendingMessage(RecordId.of("3-0"), Consumer.from(SECKILL_STREAM_GROUP, "c1"), Duration.ofMinutes(5), 1))));
+
+        service.sweepIdlePending();
+
+        // 只接管其他消费者空闲超过1分钟的消息
+        verify(stringRedisTemplate).execute(any(RedisCallback.class));
+        assertEquals(true, ReflectionTestUtils.getField(service, "pendingClaimed"));
+    }
+
+    @Test
+    public void periodicSweepIgnoresRecentlyDeliveredMessages() {
+        ReflectionTestUtils.setField(service, "seckillAsync", true);
+        when(streamOperations.pending(eq(SECKILL_STREAM_KEY), eq(SECKILL_STREAM_GROUP), any(Range.class), anyLong()))
+                .thenReturn(new PendingMessages(SECKILL_STREAM_GROUP, Collections.singletonList(
+                        new PendingMessage(RecordId.of("1-0"), Consumer.from(SECKILL_STREAM_GROUP, "c2"), Duration.ofSeconds(1), 1))));
+
+        service.sweepIdlePending();
+
+        verify(stringRedisTemplate, never()).execute(any(RedisCallback.class));
+        assertEquals(false, ReflectionTestUtils.getField(service, "pendingClaimed"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void saveVoucherOrdersFailsWhenStockUpdateFails() {
+        when(voucherOrderMapper.selectBatchIds(anyList())).thenReturn(Collections.emptyList());
+        UpdateChainWrapper<SeckillVoucher> update = mock(UpdateChainWrapper.class, RETURNS_SELF);
+        when(update.update()).thenReturn(false);
+        when(seckillVoucherService.update()).thenReturn(update);
+        List<VoucherOrder> orders = Collections.singletonList(
+                new VoucherOrder().setId(100L).setUserId(7L).setVoucherId(1L));
+
+        assertThrows(RuntimeException.class, () -> service.saveVoucherOrders(orders));
+        verify(voucherOrderMapper, never()).insert(any());
+    }
+
+    private void deliveredTimes(RecordId id, long count) {
+        when(streamOperations.pending(eq(SECKILL_STREAM_KEY), any(Consumer.class), any(Range.class), anyLong()))
+                .thenReturn(new PendingMessages(SECKILL_STREAM_GROUP, Collections.singletonList(
+                        new PendingMessage(id, Consumer.from(SECKILL_STREAM_GROUP, "c1"), Duration.ZERO, count))));
+    }
+
+    private static MapRecord<String, Object, Object> record(String id, Long orderId, Long userId) {
+        Map<Object, Object> value = new HashMap<>();
+        value.put("id", orderId.toString());
+        value.put("userId", userId.toString());
+        value.put("voucherId", "1");
+        return StreamRecords.newRecord().in(SECKILL_STREAM_KEY).withId(RecordId.of(id)).ofMap(value);
+    }
+
+    private Runnable handler() throws Exception {
+        Class<?> type = Class.forName(VoucherOrderServiceImpl.class.getName() + "$VoucherOrderHandler");
+        Constructor<?> constructor = type.getDeclaredConstructor(VoucherOrderServiceImpl.class);
+        constructor.setAccessible(true);
+        return (Runnable) constructor.newInstance(service);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> ArgumentCaptor<T> captor() {
+        return (ArgumentCaptor) ArgumentCaptor.forClass(Object.class);
+    }
+}
@@ -0,0 +1,76 @@
+package com.dp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import static com.dp.contants.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 布隆过滤器不能漏掉已经存在的id
+ */
+class BloomFilterManagerTest {
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    private final BloomFilterManager manager = new BloomFilterManager(stringRedisTemplate, new SimpleMeterRegistry());
+
+    @Test
+    public void insertedIdsAreNeverRejected() {
+        int n = 20000;
+        BloomFilter filter = manager.build(CACHE_SHOP_KEY, n, 0.01, put -> {
+            for (long id = 1; id <= n; id++) {
+                put.accept(id);
+            }
+        });
+
+        for (long id = 1; id <= n; id++) {
+            assertTrue(manager.mightContain(CACHE_SHOP_KEY, id));
+            // 订阅消息里的id是字符串, 与Long按同样的方式哈希
+            assertTrue(manager.mightContain(CACHE_SHOP_KEY, String.valueOf(id)));
+        }
+        int falsePositives = 0;
+        for (long id = n + 1; id <= 2L * n; id++) {
+            if (manager.mightContain(CACHE_SHOP_KEY, id)) {
+                falsePositives++;
+            }
+        }
+        // 误判率不超过设定值的两倍
+        assertTrue(falsePositives < n * 0.02, "误判数: " + falsePositives);
+        assertEquals(n, filter.insertions());
+    }
+
+    @Test
+    public void unbuiltPrefixLetsEverythingThrough() {
+        assertTrue(manager.mightContain(CACHE_SHOP_KEY, 1L));
+
+        manager.build(CACHE_SHOP_KEY, 100, 0.01, put -> { });
+        assertFalse(manager.mightContain(CACHE_SHOP_KEY, 1L));
+        // 其他前缀不受影响
+        assertTrue(manager.mightContain(CACHE_USER_KEY, 1L));
+    }
+
+    @Test
+    public void idsAddedDuringBuildSurviveTheSwap() {
+        manager.build(CACHE_SHOP_KEY, 100, 0.01, put -> {
+            put.accept(1L);
+            // 全量加载期间, 本节点新增的商铺和其他节点广播的商铺
+            manager.add(CACHE_SHOP_KEY, 2L);
+            manager.onAdded(CACHE_SHOP_KEY + 3);
+        });
+
+        assertTrue(manager.mightContain(CACHE_SHOP_KEY, 1L));
+        assertTrue(manager.mightContain(CACHE_SHOP_KEY, 2L));
+        assertTrue(manager.mightContain(CACHE_SHOP_KEY, 3L));
+        verify(stringRedisTemplate).convertAndSend(BLOOM_FILTER_CHANNEL, CACHE_SHOP_KEY + 2);
+    }
+
+    @Test
+    public void rebuildKeepsIdsAddedAfterFirstBuild() {
+        manager.build(CACHE_SHOP_KEY, 100, 0.01, put -> put.accept(1L));
+        manager.onAdded(CACHE_SHOP_KEY + 5);
+
+        assertTrue(manager.mightContain(CACHE_SHOP_KEY, 5L));
+    }
+}
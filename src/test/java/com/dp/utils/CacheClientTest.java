@@ -0,0 +1,457 @@
+package com.dp.utils;
+
+import com.dp.config.CacheProperties;
+import com.dp.entity.Shop;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.dp.contants.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 本地缓存的命中与失效, 批量查询, single-flight合并并发的未命中, 以及逻辑过期的读取和异步重建
+ */
+class CacheClientTest {
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, byte[]> byteRedisTemplate = mock(RedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, byte[]> byteValueOperations = mock(ValueOperations.class);
+    private final CacheCodec codec = spy(new JsonCacheCodec());
+    private final CacheRebuildExecutor rebuildExecutor = mock(CacheRebuildExecutor.class);
+    private final CacheProperties cacheProperties = new CacheProperties();
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final BloomFilterManager bloomFilterManager = new BloomFilterManager(stringRedisTemplate, registry);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    // 放行被阻塞的数据库查询
+    private final CountDownLatch release = new CountDownLatch(1);
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    public void setUp() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(byteRedisTemplate.opsForValue()).thenReturn(byteValueOperations);
+        // 关闭随机抖动, 便于校验写入的TTL
+        cacheProperties.setTtlJitterRatio(0);
+        cacheClient = new CacheClient(stringRedisTemplate, byteRedisTemplate, codec, cacheProperties, bloomFilterManager,
+                new CacheMetrics(registry), rebuildExecutor, new HotKeyTracker());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void passThroughHitIsServedFromLocalCache() {
+        cachedPlain(new Shop().setId(1L).setName("shop"));
+
+        assertEquals("shop", query(id -> fail("不应查询数据库")).getName());
+        assertEquals("shop", query(id -> fail("不应查询数据库")).getName());
+        // 第二次在本地命中, 只访问了一次redis
+        verify(byteValueOperations, times(1)).get(CACHE_SHOP_KEY + 1);
+    }
+
+    @Test
+    public void passThroughMissLoadsIntoRedisAndLocalCache() {
+        Shop shop = new Shop().setId(1L).setName("shop");
+
+        assertSame(shop, query(id -> shop));
+        assertSame(shop, query(id -> fail("不应查询数据库")));
+        byte[] raw = codec.encode(shop);
+        verify(byteValueOperations).set(CACHE_SHOP_KEY + 1, raw, TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL), TimeUnit.SECONDS);
+        verify(byteValueOperations, times(1)).get(CACHE_SHOP_KEY + 1);
+    }
+
+    @Test
+    public void deleteEvictsLocalCacheAndNotifiesOtherNodes() {
+        cachedPlain(new Shop().setId(1L).setName("shop"));
+        query(id -> fail("不应查询数据库"));
+
+        cacheClient.delete(CACHE_SHOP_KEY + 1);
+        query(id -> fail("不应查询数据库"));
+
+        verify(stringRedisTemplate).delete(CACHE_SHOP_KEY + 1);
+        verify(stringRedisTemplate).convertAndSend(CACHE_INVALIDATE_CHANNEL, CACHE_SHOP_KEY + 1);
+        // 本地缓存已清除, 重新读取redis
+        verify(byteValueOperations, times(2)).get(CACHE_SHOP_KEY + 1);
+    }
+
+    @Test
+    public void evictLocalDoesNotPublishAgain() {
+        cachedPlain(new Shop().setId(1L).setName("shop"));
+        query(id -> fail("不应查询数据库"));
+
+        cacheClient.evictLocal(CACHE_SHOP_KEY + 1);
+        query(id -> fail("不应查询数据库"));
+
+        // 收到失效消息的节点只清除自己的本地缓存, 不再广播
+        verify(stringRedisTemplate, never()).convertAndSend(anyString(), any());
+        verify(byteValueOperations, times(2)).get(CACHE_SHOP_KEY + 1);
+    }
+
+    @Test
+    public void batchedInvalidationEvictsEveryKey() {
+        cachedPlain(new Shop().setId(1L).setName("shop"));
+        query(id -> fail("不应查询数据库"));
+
+        // 批量写入时一条消息包含多个key
+        cacheClient.onInvalidated(CACHE_SHOP_KEY + 2 + "\n" + CACHE_SHOP_KEY + 1);
+        query(id -> fail("不应查询数据库"));
+
+        verify(byteValueOperations, times(2)).get(CACHE_SHOP_KEY + 1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void logicalExpireBatchSkipsExistingKeysAndPublishesOnce() {
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put(CACHE_SHOP_KEY + 1, new Shop().setId(1L));
+        batch.put(CACHE_SHOP_KEY + 2, new Shop().setId(2L));
+        batch.put(CACHE_SHOP_KEY + 3, new Shop().setId(3L));
+        // 第二个key已经存在, SET NX 没有写入
+        when(byteRedisTemplate.executePipelined(any(RedisCallback.class))).thenReturn(Arrays.asList(true, false, true));
+
+        List<String> written = cacheClient.setLogicalExpireBatchIfAbsent(batch, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        assertEquals(Arrays.asList(CACHE_SHOP_KEY + 1, CACHE_SHOP_KEY + 3), written);
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(byteRedisTemplate).executePipelined(callback.capture());
+        RedisConnection connection = mock(RedisConnection.class);
+        callback.getValue().doInRedis(connection);
+        verify(connection, times(3)).set(any(byte[].class), any(byte[].class), argThat(Expiration::isPersistent),
+                eq(RedisStringCommands.SetOption.SET_IF_ABSENT));
+        verifyNoMoreInteractions(connection);
+        // 整批只发一条失效消息
+        verify(stringRedisTemplate).convertAndSend(CACHE_INVALIDATE_CHANNEL, CACHE_SHOP_KEY + 1 + "\n" + CACHE_SHOP_KEY + 3);
+    }
+
+    @Test
+    public void logicalExpireKeepsOnlyFreshDataLocally() {
+        cachedLogical(new Shop().setId(1L).setName("stale"), LocalDateTime.now().minusSeconds(1));
+        // 拿不到锁, 直接返回旧数据
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+
+        assertEquals("stale", queryLogical(id -> fail("不应查询数据库")).getName());
+        assertEquals("stale", queryLogical(id -> fail("不应查询数据库")).getName());
+        // 已过期的数据不放入本地缓存, 每次都要检查redis中是否已经重建
+        verify(byteValueOperations, times(2)).get(CACHE_SHOP_KEY + 1);
+
+        cachedLogical(new Shop().setId(1L).setName("fresh"), LocalDateTime.now().plusMinutes(1));
+        assertEquals("fresh", queryLogical(id -> fail("不应查询数据库")).getName());
+        assertEquals("fresh", queryLogical(id -> fail("不应查询数据库")).getName());
+        verify(byteValueOperations, times(3)).get(CACHE_SHOP_KEY + 1);
+    }
+
+    @Test
+    public void bloomFilterRejectsUnknownIdBeforeRedis() {
+        bloomFilterManager.build(CACHE_SHOP_KEY, 100, 0.01, put -> put.accept(2L));
+
+        assertNull(query(id -> fail("不应查询数据库")));
+        assertNull(queryLogical(id -> fail("不应查询数据库")));
+        verify(byteValueOperations, never()).get(anyString());
+        verify(byteValueOperations, never()).set(anyString(), any(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryBatchKeepsInputOrderAndSkipsMisses() {
+        // 1在本地缓存命中, 2在redis命中, 3是缓存的空值, 4和5需要查询数据库, 其中5不存在
+        cachedPlain(new Shop().setId(1L).setName("shop1"));
+        query(id -> fail("不应查询数据库"));
+        Shop shop2 = new Shop().setId(2L).setName("shop2");
+        Shop shop4 = new Shop().setId(4L).setName("shop4");
+        byte[] raw2 = codec.encode(shop2);
+        when(byteValueOperations.multiGet(Arrays.asList(CACHE_SHOP_KEY + 3, CACHE_SHOP_KEY + 2,
+                CACHE_SHOP_KEY + 4, CACHE_SHOP_KEY + 5)))
+                .thenReturn(Arrays.asList(new byte[0], raw2, null, null));
+        List<List<Long>> loads = new ArrayList<>();
+
+        Map<Long, Shop> result = cacheClient.queryBatch(Arrays.asList(3L, 2L, 1L, 4L, 5L, 2L), CACHE_SHOP_KEY,
+                Shop.class, ids -> {
+                    loads.add(ids);
+                    Map<Long, Shop> loaded = new HashMap<>();
+                    loaded.put(4L, shop4);
+                    return loaded;
+                }, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        assertEquals(Arrays.asList(2L, 1L, 4L), new ArrayList<>(result.keySet()));
+        assertEquals("shop2", result.get(2L).getName());
+        assertEquals("shop1", result.get(1L).getName());
+        assertSame(shop4, result.get(4L));
+        // 未命中的id只查询一次数据库
+        assertEquals(Collections.singletonList(Arrays.asList(4L, 5L)), loads);
+        // 查到的写入缓存, 不存在的写入空值, 在同一个pipeline中完成
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(byteRedisTemplate).executePipelined(callback.capture());
+        RedisConnection connection = mock(RedisConnection.class);
+        callback.getValue().doInRedis(connection);
+        byte[] raw4 = codec.encode(shop4);
+        verify(connection).setEx(bytes(CACHE_SHOP_KEY + 4), TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL), raw4);
+        verify(connection).setEx(bytes(CACHE_SHOP_KEY + 5), TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), new byte[0]);
+        verifyNoMoreInteractions(connection);
+    }
+
+    @Test
+    public void queryBatchWithAllLocalHitsSkipsRedis() {
+        cachedPlain(new Shop().setId(1L).setName("shop1"));
+        query(id -> fail("不应查询数据库"));
+
+        Map<Long, Shop> result = cacheClient.queryBatch(Collections.singletonList(1L), CACHE_SHOP_KEY, Shop.class,
+                ids -> fail("不应查询数据库"), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        assertEquals("shop1", result.get(1L).getName());
+        verify(byteValueOperations, never()).multiGet(any());
+        verify(byteRedisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    public void ttlPolicyOverridesTtlAndAddsBoundedJitter() {
+        CacheProperties.TtlPolicy policy = new CacheProperties.TtlPolicy();
+        policy.setTtl(Duration.ofSeconds(60));
+        policy.setJitterRatio(0.5);
+        cacheProperties.getTtlPolicies().put(CACHE_SHOP_KEY, policy);
+
+        for (int i = 0; i < 20; i++) {
+            cacheClient.set(CACHE_SHOP_KEY + 1, new Shop(), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+
+        ArgumentCaptor<Long> seconds = ArgumentCaptor.forClass(Long.class);
+        verify(byteValueOperations, times(20)).set(eq(CACHE_SHOP_KEY + 1), any(), seconds.capture(), eq(TimeUnit.SECONDS));
+        for (Long value : seconds.getAllValues()) {
+            assertTrue(value >= 60 && value <= 90, "ttl: " + value);
+        }
+    }
+
+    @Test
+    public void concurrentMissesLoadOnce() throws Exception {
+        Shop shop = new Shop().setId(1L).setName("shop");
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        Function<Long, Shop> callback = id -> {
+            loads.incrementAndGet();
+            started.countDown();
+            await(release);
+            return shop;
+        };
+
+        List<Future<Shop>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> query(callback)));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        release.countDown();
+
+        for (Future<Shop> result : results) {
+            assertSame(shop, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void loaderErrorReachesWaiters() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Function<Long, Shop> callback = id -> {
+            started.countDown();
+            await(release);
+            throw new Error("boom");
+        };
+
+        Future<Shop> loader = executor.submit(() -> query(callback));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Shop> waiter = executor.submit(() -> query(callback));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertEquals("boom", causeOf(loader).getMessage());
+        // 等待的线程同样收到Error, 而不是一直阻塞
+        Throwable cause = causeOf(waiter);
+        assertTrue(cause instanceof Error);
+        assertEquals("boom", cause.getMessage());
+    }
+
+    @Test
+    public void waiterGivesUpAfterTimeout() throws Exception {
+        cacheProperties.setSingleFlightTimeoutMillis(100);
+        CountDownLatch started = new CountDownLatch(1);
+        Function<Long, Shop> callback = id -> {
+            started.countDown();
+            await(release);
+            return null;
+        };
+
+        executor.submit(() -> query(callback));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        long start = System.currentTimeMillis();
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> query(callback));
+        assertTrue(e.getMessage().contains("等待查询超时"));
+        assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    @Test
+    public void logicalExpireReturnsFreshDataWithoutRebuild() {
+        cachedLogical(new Shop().setId(1L).setName("shop"), LocalDateTime.now().plusMinutes(1));
+
+        assertEquals("shop", queryLogical(id -> fail("不应查询数据库")).getName());
+        // 第二次从本地缓存命中
+        assertEquals("shop", queryLogical(id -> fail("不应查询数据库")).getName());
+        verify(byteValueOperations, times(1)).get(CACHE_SHOP_KEY + 1);
+        verify(rebuildExecutor, never()).submit(anyString(), any(Runnable.class));
+    }
+
+    @Test
+    public void logicalExpireReturnsStaleDataAndRebuildsAsync() {
+        Shop fresh = new Shop().setId(1L).setName("fresh");
+        cachedLogical(new Shop().setId(1L).setName("stale"), LocalDateTime.now().minusSeconds(1));
+        when(valueOperations.setIfAbsent(eq(LOCK_SHOP_KEY + 1), anyString(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(true);
+        // 在当前线程执行重建任务
+        when(rebuildExecutor.submit(anyString(), any(Runnable.class))).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return true;
+        });
+        AtomicInteger loads = new AtomicInteger();
+
+        Shop result = queryLogical(id -> {
+            loads.incrementAndGet();
+            return fresh;
+        });
+
+        assertEquals("stale", result.getName());
+        assertEquals(1, loads.get());
+        verify(codec).encode(argThat(value -> value instanceof RedisData && ((RedisData) value).getData() == fresh
+                && ((RedisData) value).getExpireTime().isAfter(LocalDateTime.now())));
+        verify(byteValueOperations).set(eq(CACHE_SHOP_KEY + 1), any(byte[].class));
+        verify(stringRedisTemplate).delete(LOCK_SHOP_KEY + 1);
+    }
+
+    @Test
+    public void logicalExpireWithoutLockReturnsStaleData() {
+        cachedLogical(new Shop().setId(1L).setName("stale"), LocalDateTime.now().minusSeconds(1));
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+
+        assertEquals("stale", queryLogical(id -> fail("不应查询数据库")).getName());
+        verify(rebuildExecutor, never()).submit(anyString(), any(Runnable.class));
+    }
+
+    @Test
+    public void logicalExpireWithDeletedEntityIsNullHit() {
+        cachedLogical(null, LocalDateTime.now().plusMinutes(1));
+
+        assertNull(queryLogical(id -> fail("不应查询数据库")));
+        assertNull(queryLogical(id -> fail("不应查询数据库")));
+        // 空数据不放入本地缓存
+        verify(byteValueOperations, times(2)).get(CACHE_SHOP_KEY + 1);
+        verify(rebuildExecutor, never()).submit(anyString(), any(Runnable.class));
+    }
+
+    @Test
+    public void logicalExpireWithExpiredDeletedEntityRebuilds() {
+        cachedLogical(null, LocalDateTime.now().minusSeconds(1));
+        when(valueOperations.setIfAbsent(eq(LOCK_SHOP_KEY + 1), anyString(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(true);
+        when(rebuildExecutor.submit(anyString(), any(Runnable.class))).thenReturn(true);
+
+        assertNull(queryLogical(id -> fail("不应在当前线程查询数据库")));
+        verify(rebuildExecutor).submit(eq(CACHE_SHOP_KEY + 1), any(Runnable.class));
+    }
+
+    @Test
+    public void plainValueUnderLogicalKeyIsHitWithOneGet() {
+        // 同一个key之前由queryWithPassThrough以带TTL的方式写入
+        cachedPlain(new Shop().setId(1L).setName("shop"));
+
+        assertEquals("shop", queryLogical(id -> fail("不应查询数据库")).getName());
+        assertEquals("shop", queryLogical(id -> fail("不应查询数据库")).getName());
+        verify(byteValueOperations, times(1)).get(CACHE_SHOP_KEY + 1);
+    }
+
+    @Test
+    public void logicalMissLoadsWithoutSecondGet() {
+        Shop shop = new Shop().setId(1L).setName("shop");
+
+        assertSame(shop, queryLogical(id -> shop));
+        verify(byteValueOperations, times(1)).get(CACHE_SHOP_KEY + 1);
+    }
+
+    private Shop query(Function<Long, Shop> callback) {
+        return cacheClient.queryWithPassThrough(1L, CACHE_SHOP_KEY, Shop.class, callback, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    private Shop queryLogical(Function<Long, Shop> callback) {
+        return cacheClient.queryWithLogicalExpire(1L, CACHE_SHOP_KEY, LOCK_SHOP_KEY, Shop.class, callback,
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void cachedPlain(Shop shop) {
+        byte[] raw = codec.encode(shop);
+        when(byteValueOperations.get(CACHE_SHOP_KEY + 1)).thenReturn(raw);
+    }
+
+    private void cachedLogical(Shop shop, LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(expireTime);
+        byte[] raw = codec.encode(redisData);
+        when(byteValueOperations.get(CACHE_SHOP_KEY + 1)).thenReturn(raw);
+    }
+
+    private static Throwable causeOf(Future<?> future) throws Exception {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
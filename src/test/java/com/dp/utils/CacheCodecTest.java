@@ -0,0 +1,54 @@
+package com.dp.utils;
+
+import com.dp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 两种编码都能在一次解码中区分逻辑过期的包装和带TTL写入的普通数据
+ */
+class CacheCodecTest {
+
+    private final CacheCodec[] codecs = {new JsonCacheCodec(), new KryoCacheCodec()};
+
+    @Test
+    public void decodeLogicalReadsWrappedData() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(1).withNano(0);
+        RedisData redisData = new RedisData();
+        redisData.setData(new Shop().setId(1L).setName("shop"));
+        redisData.setExpireTime(expireTime);
+
+        for (CacheCodec codec : codecs) {
+            RedisData decoded = codec.decodeLogical(codec.encode(redisData), Shop.class);
+            assertEquals(expireTime, decoded.getExpireTime());
+            assertEquals("shop", ((Shop) decoded.getData()).getName());
+            assertEquals("shop", codec.decodeUnwrapped(codec.encode(redisData), Shop.class).getName());
+        }
+    }
+
+    @Test
+    public void decodeLogicalReadsPlainDataWithoutExpireTime() {
+        Shop shop = new Shop().setId(1L).setName("shop");
+
+        for (CacheCodec codec : codecs) {
+            RedisData decoded = codec.decodeLogical(codec.encode(shop), Shop.class);
+            assertNull(decoded.getExpireTime());
+            assertEquals("shop", ((Shop) decoded.getData()).getName());
+        }
+    }
+
+    @Test
+    public void decodeLogicalKeepsDeletedEntityAsNull() {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.now());
+
+        for (CacheCodec codec : codecs) {
+            RedisData decoded = codec.decodeLogical(codec.encode(redisData), Shop.class);
+            assertNotNull(decoded.getExpireTime());
+            assertNull(decoded.getData());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.dp.utils;
+
+import com.dp.config.FeedProperties;
+import com.dp.mapper.FollowMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.dp.contants.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 收件箱和大V发件箱的多路归并与滚动分页
+ */
+class FeedTimelineTest {
+
+    private static final Long USER_ID = 1L;
+    private static final Long CELEBRITY_ID = 10L;
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    private final FollowGraph followGraph = mock(FollowGraph.class);
+    // key -> (博文id -> 时间戳)
+    private final Map<String, Map<Long, Long>> zsets = new HashMap<>();
+    private FeedTimeline timeline;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        FeedProperties feedProperties = new FeedProperties();
+        feedProperties.setPageCacheSeconds(0);
+        timeline = new FeedTimeline(stringRedisTemplate, mock(FollowMapper.class), followGraph,
+                feedProperties, new SimpleMeterRegistry());
+        when(followGraph.isBuilt()).thenReturn(true);
+        when(followGraph.followsIn(USER_ID, FEED_CELEBRITY_KEY)).thenReturn(Collections.singletonList(CELEBRITY_ID));
+        // 执行pipeline回调, 按 ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT 0 count 的语义返回每个来源的结果
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            RedisConnection connection = mock(RedisConnection.class);
+            invocation.<RedisCallback<Object>>getArgument(0).doInRedis(connection);
+            List<Object> results = new ArrayList<>();
+            mockingDetails(connection).getInvocations().forEach(call -> {
+                String key = new String(call.<byte[]>getArgument(0), StandardCharsets.UTF_8);
+                RedisZSetCommands.Range range = call.getArgument(1);
+                RedisZSetCommands.Limit limit = call.getArgument(2);
+                results.add(range(key, ((Number) range.getMax().getValue()).longValue(), limit.getCount()));
+            });
+            return results;
+        });
+    }
+
+    @Test
+    public void mergesInboxAndOutboxByTimeWithoutDuplicates() {
+        add(FEED_KEY + USER_ID, 1L, 100L);
+        add(FEED_KEY + USER_ID, 3L, 90L);
+        add(FEED_KEY + USER_ID, 5L, 80L);
+        add(FEED_KEY + USER_ID, 6L, 80L);
+        add(FEED_OUTBOX_KEY + CELEBRITY_ID, 2L, 95L);
+        // 同一篇博文已经推送到收件箱
+        add(FEED_OUTBOX_KEY + CELEBRITY_ID, 3L, 90L);
+        add(FEED_OUTBOX_KEY + CELEBRITY_ID, 4L, 80L);
+
+        FeedTimeline.FeedPage first = timeline.page(USER_ID, null, 0, 3);
+        assertEquals(Arrays.asList(1L, 2L, 3L), first.getIds());
+        assertEquals(90L, first.getMinTime());
+        assertEquals(1, first.getOffset());
+
+        // 时间戳相同时按id由大到小, 上一页返回过的博文3不再出现
+        FeedTimeline.FeedPage second = timeline.page(USER_ID, first.getMinTime(), first.getOffset(), 3);
+        assertEquals(Arrays.asList(6L, 5L, 4L), second.getIds());
+        assertEquals(80L, second.getMinTime());
+        assertEquals(3, second.getOffset());
+
+        FeedTimeline.FeedPage third = timeline.page(USER_ID, second.getMinTime(), second.getOffset(), 3);
+        assertTrue(third.getIds().isEmpty());
+    }
+
+    @Test
+    public void pagesThroughEqualTimestamps() {
+        for (long blogId = 1; blogId <= 5; blogId++) {
+            add(FEED_KEY + USER_ID, blogId, 50L);
+        }
+
+        FeedTimeline.FeedPage first = timeline.page(USER_ID, null, 0, 2);
+        assertEquals(Arrays.asList(5L, 4L), first.getIds());
+        assertEquals(2, first.getOffset());
+        // 整页的时间戳都等于上一页的最小值, 偏移量继续累加
+        FeedTimeline.FeedPage second = timeline.page(USER_ID, first.getMinTime(), first.getOffset(), 2);
+        assertEquals(Arrays.asList(3L, 2L), second.getIds());
+        assertEquals(50L, second.getMinTime());
+        assertEquals(4, second.getOffset());
+        FeedTimeline.FeedPage third = timeline.page(USER_ID, second.getMinTime(), second.getOffset(), 2);
+        assertEquals(Collections.singletonList(1L), third.getIds());
+        assertEquals(5, third.getOffset());
+    }
+
+    @Test
+    public void readsOnlyInboxWithoutFollowedCelebrities() {
+        when(followGraph.followsIn(USER_ID, FEED_CELEBRITY_KEY)).thenReturn(Collections.emptyList());
+        add(FEED_KEY + USER_ID, 1L, 100L);
+        add(FEED_OUTBOX_KEY + CELEBRITY_ID, 2L, 95L);
+
+        assertEquals(Collections.singletonList(1L), timeline.page(USER_ID, null, 0, 10).getIds());
+    }
+
+    private void add(String key, Long blogId, Long time) {
+        zsets.computeIfAbsent(key, k -> new HashMap<>()).put(blogId, time);
+    }
+
+    // 与redis一样, 分数相同的成员按成员倒序排列
+    private Set<ZSetOperations.TypedTuple<String>> range(String key, long max, int count) {
+        return zsets.getOrDefault(key, Collections.emptyMap()).entrySet().stream()
+                .filter(e -> e.getValue() <= max)
+                .sorted((a, b) -> a.getValue().equals(b.getValue())
+                        ? b.getKey().toString().compareTo(a.getKey().toString())
+                        : Long.compare(b.getValue(), a.getValue()))
+                .limit(count)
+                .map(e -> new DefaultTypedTuple<>(e.getKey().toString(), e.getValue().doubleValue()))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+}
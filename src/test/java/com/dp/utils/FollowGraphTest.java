@@ -0,0 +1,59 @@
+package com.dp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import static com.dp.contants.RedisConstants.FOLLOW_GRAPH_BUILT_KEY;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 关注关系构建标记的定期检查: 标记出现时切换到redis, 消失时退回数据库
+ */
+class FollowGraphTest {
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    private FollowGraph followGraph;
+
+    @BeforeEach
+    public void setUp() {
+        followGraph = new FollowGraph(stringRedisTemplate);
+    }
+
+    @Test
+    public void switchesToRedisOnceAnotherNodeHasBuilt() {
+        when(stringRedisTemplate.hasKey(FOLLOW_GRAPH_BUILT_KEY)).thenReturn(false);
+        followGraph.refreshBuilt();
+        assertFalse(followGraph.isBuilt());
+
+        when(stringRedisTemplate.hasKey(FOLLOW_GRAPH_BUILT_KEY)).thenReturn(true);
+        followGraph.refreshBuilt();
+        assertTrue(followGraph.isBuilt());
+    }
+
+    @Test
+    public void fallsBackToDatabaseWhenMarkerIsGone() {
+        when(stringRedisTemplate.hasKey(FOLLOW_GRAPH_BUILT_KEY)).thenReturn(true);
+        assertTrue(followGraph.loadBuilt());
+
+        // redis被清空后标记不存在, 集合中的数据也不再完整
+        when(stringRedisTemplate.hasKey(FOLLOW_GRAPH_BUILT_KEY)).thenReturn(false);
+        followGraph.refreshBuilt();
+        assertFalse(followGraph.isBuilt());
+    }
+
+    @Test
+    public void fallsBackToDatabaseWhenRedisIsUnreachable() {
+        when(stringRedisTemplate.hasKey(FOLLOW_GRAPH_BUILT_KEY)).thenReturn(true);
+        followGraph.refreshBuilt();
+        assertTrue(followGraph.isBuilt());
+
+        when(stringRedisTemplate.hasKey(FOLLOW_GRAPH_BUILT_KEY)).thenThrow(new RedisConnectionFailureException("down"));
+        followGraph.refreshBuilt();
+        assertFalse(followGraph.isBuilt());
+    }
+}
@@ -0,0 +1,217 @@
+package com.dp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.dp.contants.RedisConstants.ID_WORKER_KEY;
+import static com.dp.contants.RedisConstants.ID_WORKER_TTL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 各种id生成策略的格式与唯一性
+ */
+class RedisIdWorkerTest {
+
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    private static final long COUNT_MASK = (1L << 32) - 1;
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 500;
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+    // 模拟redis中的计数器
+    private final AtomicLong counter = new AtomicLong();
+    private RedisIdWorker worker;
+
+    @BeforeEach
+    public void setUp() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment(anyString())).thenAnswer(invocation -> counter.incrementAndGet());
+        when(valueOperations.increment(anyString(), anyLong()))
+                .thenAnswer(invocation -> counter.addAndGet(invocation.getArgument(1)));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (worker != null) {
+            ReflectionTestUtils.invokeMethod(worker, "destroy");
+        }
+    }
+
+    @Test
+    public void incrIdIsTimestampAndDailyCount() {
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.INCR, 1000);
+        long before = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+
+        long id = worker.nextId("order");
+
+        long after = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        assertEquals(1L, id & COUNT_MASK);
+        assertTrue((id >>> 32) >= before && (id >>> 32) <= after);
+        String today = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        verify(valueOperations).increment("icr:order:" + today);
+    }
+
+    @Test
+    public void segmentIdsAreSequentialWithinOneSegment() {
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.SEGMENT, 1000);
+
+        for (long expected = 1; expected <= 500; expected++) {
+            assertEquals(expected, worker.nextId("order") & COUNT_MASK);
+        }
+        // 余量还很多, 不会预取
+        verify(valueOperations, times(1)).increment(anyString(), eq(1000L));
+    }
+
+    @Test
+    public void localIdsUseSegmentsAndShareTheIncrCounter() {
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.INCR, 1000);
+
+        assertEquals(1L, worker.nextId("order") & COUNT_MASK);
+        for (long expected = 2; expected <= 100; expected++) {
+            assertEquals(expected, worker.nextLocalId("order") & COUNT_MASK);
+        }
+        // 号段从同一个计数key中领取, 之后的INCR跳过整段
+        assertEquals(1002L, worker.nextId("order") & COUNT_MASK);
+        verify(valueOperations, times(1)).increment(anyString(), eq(1000L));
+    }
+
+    @Test
+    public void segmentIdsAreUniqueUnderConcurrency() throws Exception {
+        int segmentSize = 100;
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.SEGMENT, segmentSize);
+
+        Set<Long> ids = generateConcurrently();
+
+        assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+        // 每段只领取一次, 最多浪费已预取但尚未使用的一段
+        int total = THREADS * IDS_PER_THREAD;
+        verify(valueOperations, atMost(total / segmentSize + 1)).increment(anyString(), eq((long) segmentSize));
+    }
+
+    @Test
+    public void snowflakeIdCarriesLeasedWorkerId() {
+        // 机器id 0 已被其他实例占用
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class)))
+                .thenAnswer(invocation -> !(ID_WORKER_KEY + 0).equals(invocation.getArgument(0)));
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.SNOWFLAKE, 1000);
+
+        long first = worker.nextId("order");
+        long second = worker.nextId("order");
+
+        // 低32位: 1位标记 + 10位机器id + 21位序列号
+        assertEquals(1L, (first & COUNT_MASK) >>> 31);
+        assertEquals(1L, ((first & COUNT_MASK) >>> 21) & 1023);
+        assertTrue(second > first);
+        // 雪花模式不访问redis的计数器
+        verify(valueOperations, never()).increment(anyString());
+    }
+
+    @Test
+    public void snowflakeIdsAreUniqueUnderConcurrency() throws Exception {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.SNOWFLAKE, 1000);
+
+        Set<Long> ids = generateConcurrently();
+
+        assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+    }
+
+    @Test
+    public void snowflakeFailsWhenAllWorkerIdsAreTaken() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.SNOWFLAKE, 1000);
+
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    @Test
+    public void incrIdsNeverSetTheSnowflakeFlag() {
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.INCR, 1000);
+        counter.set((1L << 31) - 2);
+
+        assertEquals(0L, (worker.nextId("order") & COUNT_MASK) >>> 31);
+        // 当天的序列号超过31位时拒绝生成, 而不是与雪花模式的id重叠
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void snowflakeStopsAfterLeaseExpiresAndRecovers() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.SNOWFLAKE, 1000);
+        worker.nextId("order");
+        // redis不可用, 续约一直失败, 并且距离上次续约已经超过租约时间
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any()))
+                .thenThrow(new RuntimeException("redis down"));
+        ReflectionTestUtils.setField(worker, "leaseRenewedMillis",
+                System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(ID_WORKER_TTL));
+
+        ReflectionTestUtils.invokeMethod(worker, "renewWorkerId");
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+
+        // redis恢复后重新取得机器id
+        ReflectionTestUtils.invokeMethod(worker, "renewWorkerId");
+        assertEquals(1L, (worker.nextId("order") & COUNT_MASK) >>> 31);
+    }
+
+    @Test
+    public void snowflakeRefusesIdsOnceLeaseIsStale() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        worker = new RedisIdWorker(stringRedisTemplate, RedisIdWorker.Strategy.SNOWFLAKE, 1000);
+        worker.nextId("order");
+        // 续约线程没有运行(例如长时间GC), 生成id时同样检查租约
+        ReflectionTestUtils.setField(worker, "leaseRenewedMillis",
+                System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(ID_WORKER_TTL));
+
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    private Set<Long> generateConcurrently() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < IDS_PER_THREAD; j++) {
+                        ids.add(worker.nextId("order"));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,81 @@
+package com.dp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 名称索引的关键字搜索、分页和输入联想排序
+ */
+class ShopNameIndexTest {
+
+    private final ShopNameIndex index = new ShopNameIndex();
+
+    @BeforeEach
+    public void setUp() {
+        index.put(1L, "茶颜悦色(五一广场店)", 45, 100);
+        index.put(2L, "茶颜悦色(黄兴路店)", 48, 50);
+        index.put(3L, "悦色茶馆", 49, 10);
+        index.put(4L, "老茶颜", 45, 200);
+        index.put(5L, "星巴克", 50, 1000);
+    }
+
+    @Test
+    public void searchRanksByScoreThenSold() {
+        // 4: 评分与1相同, 销量更高
+        assertEquals(Arrays.asList(2L, 4L, 1L), index.search("茶颜", 0, 10));
+        assertEquals(Collections.singletonList(4L), index.search("茶颜", 1, 1));
+        assertTrue(index.search("茶颜", 3, 10).isEmpty());
+        // 单字查询
+        assertEquals(Arrays.asList(3L, 2L, 4L, 1L), index.search("茶", 0, 10));
+    }
+
+    @Test
+    public void searchRequiresAdjacentCharacters() {
+        // "色茶"的两个字都出现在"茶颜悦色"中, 但并不相邻
+        assertEquals(Collections.singletonList(3L), index.search("色茶", 0, 10));
+        assertTrue(index.search("颜茶", 0, 10).isEmpty());
+        assertTrue(index.search("咖啡", 0, 10).isEmpty());
+        assertTrue(index.search(" ", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void searchNormalizesWidthCaseAndBlanks() {
+        index.put(6L, "Ｍｉｘｕｅ 蜜雪冰城", 40, 10);
+
+        assertEquals(Collections.singletonList(6L), index.search("mixue蜜雪", 0, 10));
+        assertEquals(Collections.singletonList(6L), index.search("MIXUE", 0, 10));
+    }
+
+    @Test
+    public void suggestPutsPrefixMatchesFirstAndDropsDuplicateNames() {
+        index.put(7L, "茶颜悦色(五一广场店)", 30, 0);
+
+        // 以"茶颜"开头的排在包含"茶颜"的之前, 重名的商铺只出现一次
+        assertEquals(Arrays.asList("茶颜悦色(黄兴路店)", "茶颜悦色(五一广场店)", "老茶颜"), index.suggest("茶颜", 10));
+        assertEquals(Collections.singletonList("茶颜悦色(黄兴路店)"), index.suggest("茶颜", 1));
+        assertTrue(index.suggest("", 10).isEmpty());
+    }
+
+    @Test
+    public void hugeLimitsDoNotOverflow() {
+        assertEquals(3, index.suggest("茶颜", Integer.MAX_VALUE).size());
+        assertTrue(index.search("茶颜", Integer.MAX_VALUE - 1, 10).isEmpty());
+    }
+
+    @Test
+    public void renameAndRemoveUpdatePostings() {
+        index.put(5L, "星巴克臻选", 50, 1000);
+        assertEquals(Collections.singletonList(5L), index.search("臻选", 0, 10));
+
+        index.put(4L, "老街面馆", 45, 200);
+        assertEquals(Arrays.asList(2L, 1L), index.search("茶颜", 0, 10));
+
+        index.put(5L, null, null, null);
+        assertTrue(index.search("星巴克", 0, 10).isEmpty());
+    }
+}
@@ -0,0 +1,111 @@
+package com.dp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 网格索引的最近邻和半径查询与逐个计算距离的结果一致
+ */
+class ShopSpatialIndexTest {
+
+    private static final double EARTH_RADIUS = 6372797.560856;
+    private static final double X = 120.15;
+    private static final double Y = 30.25;
+
+    private final ShopSpatialIndex index = new ShopSpatialIndex();
+    // 商铺id -> {x, y}
+    private final Map<Long, double[]> shops = new HashMap<>();
+    private final Random random = new Random(42);
+
+    @Test
+    public void nearestMatchesBruteForce() {
+        fill(2000);
+        // 其他类型的商铺不会出现在结果中
+        index.put(100000L, 2L, X, Y);
+
+        for (int i = 0; i < 50; i++) {
+            double x = X + (random.nextDouble() - 0.5) * 0.1;
+            double y = Y + (random.nextDouble() - 0.5) * 0.1;
+            assertEquals(bruteForce(x, y, 3000).stream().limit(10).collect(Collectors.toList()),
+                    ids(index.nearest(1L, x, y, 10, 3000)));
+        }
+    }
+
+    @Test
+    public void radiusMatchesBruteForce() {
+        fill(2000);
+
+        for (int i = 0; i < 20; i++) {
+            double x = X + (random.nextDouble() - 0.5) * 0.1;
+            double y = Y + (random.nextDouble() - 0.5) * 0.1;
+            List<ShopSpatialIndex.Neighbor> result = index.radius(1L, x, y, 1500);
+            assertEquals(bruteForce(x, y, 1500), ids(result));
+            for (int j = 1; j < result.size(); j++) {
+                assertTrue(result.get(j - 1).getDistance() <= result.get(j).getDistance());
+            }
+        }
+    }
+
+    @Test
+    public void putMovesAndRemovesShops() {
+        index.put(1L, 1L, X, Y);
+        index.put(2L, 1L, X + 0.001, Y);
+
+        // 移动到很远的格子
+        index.put(1L, 1L, X + 1, Y);
+        assertEquals(Collections.singletonList(2L), ids(index.radius(1L, X, Y, 1000)));
+        // 修改类型
+        index.put(2L, 3L, X + 0.001, Y);
+        assertTrue(index.radius(1L, X, Y, 1000).isEmpty());
+        assertEquals(Collections.singletonList(2L), ids(index.radius(3L, X, Y, 1000)));
+        // 坐标为空时移除
+        index.put(2L, 3L, null, null);
+        assertTrue(index.radius(3L, X, Y, 1000).isEmpty());
+        assertTrue(index.nearest(9L, X, Y, 10, 1000).isEmpty());
+        assertTrue(index.nearest(1L, X + 1, Y, 0, 1000).isEmpty());
+    }
+
+    // 在中心点附近约10公里的范围内随机放置商铺
+    private void fill(int n) {
+        for (long id = 1; id <= n; id++) {
+            double x = X + (random.nextDouble() - 0.5) * 0.2;
+            double y = Y + (random.nextDouble() - 0.5) * 0.2;
+            shops.put(id, new double[]{x, y});
+            index.put(id, 1L, x, y);
+        }
+    }
+
+    private List<Long> bruteForce(double x, double y, double meters) {
+        List<Map.Entry<Long, Double>> within = new ArrayList<>();
+        for (Map.Entry<Long, double[]> entry : shops.entrySet()) {
+            double d = distance(x, y, entry.getValue()[0], entry.getValue()[1]);
+            if (d <= meters) {
+                within.add(new HashMap.SimpleEntry<>(entry.getKey(), d));
+            }
+        }
+        within.sort(Map.Entry.comparingByValue(Comparator.naturalOrder()));
+        return within.stream().map(Map.Entry::getKey).collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<ShopSpatialIndex.Neighbor> neighbors) {
+        return neighbors.stream().map(ShopSpatialIndex.Neighbor::getId).collect(Collectors.toList());
+    }
+
+    private static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+}
@@ -0,0 +1,145 @@
+package com.dp.utils;
+
+import com.dp.mapper.CounterMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.dp.utils.WriteBehindCounter.Type.BLOG_LIKED;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 计数的汇总和幂等写回
+ */
+class WriteBehindCounterTest {
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+    @SuppressWarnings("unchecked")
+    private final HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+    private final CounterMapper counterMapper = mock(CounterMapper.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private final WriteBehindCounter counter = new WriteBehindCounter(stringRedisTemplate, counterMapper, transactionTemplate);
+
+    @BeforeEach
+    public void setUp() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        doReturn(hashOperations).when(stringRedisTemplate).opsForHash();
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        doReturn("f1").when(stringRedisTemplate).execute(any(RedisScript.class), anyList(), any());
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        Map<Object, Object> entries = new HashMap<>();
+        entries.put("3", "2");
+        entries.put("1", "5");
+        entries.put("2", "0");
+        when(hashOperations.entries(BLOG_LIKED.flushingKey())).thenReturn(entries);
+    }
+
+    @Test
+    public void flushAppliesNonZeroDeltasOnce() {
+        when(counterMapper.markFlushed(anyString())).thenReturn(1);
+
+        counter.flush();
+
+        Map<Long, Long> expected = new HashMap<>();
+        expected.put(1L, 5L);
+        expected.put(3L, 2L);
+        // 批次id = 写回id:批次中最小的记录id
+        verify(counterMapper).markFlushed("f1:1");
+        verify(counterMapper).incrBatch("tb_blog", "liked", expected);
+        verify(hashOperations).delete(BLOG_LIKED.flushingKey(), "1", "3");
+        verify(stringRedisTemplate).delete(Arrays.asList(BLOG_LIKED.flushingKey(), BLOG_LIKED.flushIdKey()));
+    }
+
+    @Test
+    public void flushSkipsBatchAlreadyWritten() {
+        // 上次更新已经提交, 但没来得及从hash中删除
+        when(counterMapper.markFlushed("f1:1")).thenReturn(0);
+
+        counter.flush();
+
+        verify(counterMapper, never()).incrBatch(anyString(), anyString(), anyMap());
+        verify(hashOperations).delete(BLOG_LIKED.flushingKey(), "1", "3");
+        verify(stringRedisTemplate).delete(Arrays.asList(BLOG_LIKED.flushingKey(), BLOG_LIKED.flushIdKey()));
+    }
+
+    @Test
+    public void flushKeepsRemainingBatchesWhenUpdateFails() {
+        when(counterMapper.markFlushed(anyString())).thenReturn(1);
+        when(counterMapper.incrBatch(anyString(), anyString(), anyMap())).thenThrow(new RuntimeException("db down"));
+
+        counter.flush();
+
+        // 变化日志和写回id保留, 下次以相同的批次重试
+        verify(hashOperations, never()).delete(eq(BLOG_LIKED.flushingKey()), any());
+        verify(stringRedisTemplate, never()).delete(Arrays.asList(BLOG_LIKED.flushingKey(), BLOG_LIKED.flushIdKey()));
+    }
+
+    @Test
+    public void flushWithoutLockDoesNothing() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+
+        counter.flush();
+
+        verify(stringRedisTemplate, never()).execute(any(RedisScript.class), anyList(), any());
+        verify(counterMapper, never()).markFlushed(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void drainMergesIncrementsIntoOnePipeline() {
+        counter.increment(BLOG_LIKED, 1L, 1);
+        counter.increment(BLOG_LIKED, 1L, 1);
+        counter.increment(BLOG_LIKED, 2L, -1);
+        counter.increment(BLOG_LIKED, 3L, 1);
+        counter.increment(BLOG_LIKED, 3L, -1);
+
+        counter.drain();
+
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(stringRedisTemplate, times(1)).executePipelined(callback.capture());
+        StringRedisConnection connection = mock(StringRedisConnection.class);
+        callback.getValue().doInRedis(connection);
+        verify(connection).hIncrBy(BLOG_LIKED.deltaKey(), "1", 2L);
+        verify(connection).hIncrBy(BLOG_LIKED.deltaKey(), "2", -1L);
+        verifyNoMoreInteractions(connection);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void drainPutsDeltasBackWhenRedisFails() {
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenThrow(new RuntimeException("redis down"));
+        counter.increment(BLOG_LIKED, 1L, 2);
+        counter.drain();
+
+        // 放回内存的计数在下一次汇总时写入
+        reset(stringRedisTemplate);
+        counter.drain();
+
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(stringRedisTemplate).executePipelined(callback.capture());
+        StringRedisConnection connection = mock(StringRedisConnection.class);
+        callback.getValue().doInRedis(connection);
+        verify(connection).hIncrBy(BLOG_LIKED.deltaKey(), "1", 2L);
+    }
+}